@@ -0,0 +1,327 @@
+package processtree;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * BlockDelta
+ *
+ * @author Kenneth Evans, Jr.<br>
+ * <br>
+ *         This class finds how much of a file differs from a base file in the
+ *         way rsync does. The base file is divided into blocks of about the
+ *         square root of its size, and a weak rolling checksum and a strong
+ *         digest are kept for each block. The other file is scanned a byte at
+ *         a time, rolling the weak checksum, and the strong digest is only
+ *         computed when the weak checksum matches a block. Bytes that are not
+ *         in any matching block are changed. Both files are read through
+ *         buffers of a fixed size, so files larger than the heap can be
+ *         compared.<br>
+ * <br>
+ *
+ */
+public class BlockDelta
+{
+    /** Minimum block size. */
+    public static final int MIN_BLOCK_SIZE = 4096;
+    /** Maximum block size. */
+    public static final int MAX_BLOCK_SIZE = 128 * 1024;
+    /** Maximum number of changed regions to list. */
+    public static final int MAX_REGIONS = 20;
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final String LS = System.getProperty("line.separator");
+
+    private int blockSize;
+    private int nBlocks;
+    /** The length of the last block of the base file. */
+    private int lastLength;
+    private int[] weak;
+    private long[] strong;
+    /** Hash table of the first block for each weak checksum. */
+    private int[] heads;
+    /** The next block with the same hash. */
+    private int[] next;
+    private MessageDigest md;
+
+    /** Rolling checksum sums. */
+    private int s1;
+    private int s2;
+
+    /** The buffer for the file being scanned. */
+    private byte[] buf;
+    private int pos;
+    private int limit;
+
+    /** The number of bytes in matching blocks. */
+    private long nMatched = 0;
+    /** The number of changed regions. */
+    private int nRegions = 0;
+    /** The first MAX_REGIONS changed regions as start and end offsets. */
+    private long[] regions = new long[2 * MAX_REGIONS];
+
+    /**
+     * Constructor.
+     */
+    public BlockDelta() {
+        try {
+            md = MessageDigest.getInstance("MD5");
+        } catch(NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Gets the block size to use for a base file of the given size.
+     *
+     * @param size
+     * @return
+     */
+    public static int getBlockSize(long size) {
+        long blockSize = (long)Math.sqrt((double)size);
+        return (int)Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE,
+            blockSize));
+    }
+
+    /**
+     * Finds the changes from a base file to another file and writes a
+     * summary with the changed regions.
+     *
+     * @param base The base file.
+     * @param file The file to compare to it.
+     * @param out
+     * @return The number of changed bytes in file.
+     * @throws IOException
+     */
+    public long delta(File base, File file, Appendable out) throws IOException {
+        nMatched = 0;
+        nRegions = 0;
+        FileInputStream in = new FileInputStream(base);
+        try {
+            readSignatures(in.getChannel());
+        } finally {
+            in.close();
+        }
+        long size;
+        in = new FileInputStream(file);
+        try {
+            FileChannel ch = in.getChannel();
+            size = ch.size();
+            scan(ch, size);
+        } finally {
+            in.close();
+        }
+        long nChanged = size - nMatched;
+        out.append(String.format("Delta: %d of %d bytes changed (%.2f%%)"
+            + " in %d regions, block size %d", nChanged, size,
+            size > 0 ? 100. * nChanged / size : 0., nRegions, blockSize)
+            + LS);
+        for(int i = 0; i < Math.min(nRegions, MAX_REGIONS); i++) {
+            long start = regions[2 * i];
+            long end = regions[2 * i + 1];
+            out.append("  Changed bytes " + start + "-" + (end - 1) + " ("
+                + (end - start) + " bytes)" + LS);
+        }
+        if(nRegions > MAX_REGIONS) {
+            out.append("  ... " + (nRegions - MAX_REGIONS) + " more regions"
+                + LS);
+        }
+        return nChanged;
+    }
+
+    /**
+     * Reads the base file a block at a time and computes the checksums.
+     *
+     * @param ch
+     * @throws IOException
+     */
+    private void readSignatures(FileChannel ch) throws IOException {
+        long size = ch.size();
+        blockSize = getBlockSize(size);
+        nBlocks = (int)((size + blockSize - 1) / blockSize);
+        lastLength = (int)(size - (long)(nBlocks - 1) * blockSize);
+        weak = new int[nBlocks];
+        strong = new long[nBlocks];
+        int tableSize = Integer.highestOneBit(Math.max(1, 2 * nBlocks - 1));
+        heads = new int[2 * tableSize];
+        Arrays.fill(heads, -1);
+        next = new int[nBlocks];
+        buf = new byte[Math.max(BUFFER_SIZE, 2 * blockSize)];
+        pos = limit = 0;
+        for(int block = 0; block < nBlocks; block++) {
+            int len = block == nBlocks - 1 ? lastLength : blockSize;
+            fill(ch, len);
+            weak[block] = checksum(pos, len);
+            strong[block] = digest(pos, len);
+            int index = hash(weak[block]);
+            next[block] = heads[index];
+            heads[index] = block;
+            pos += len;
+        }
+    }
+
+    /**
+     * Scans a file for blocks of the base file, rolling the weak checksum a
+     * byte at a time when there is no match.
+     *
+     * @param ch
+     * @param size The size of the file.
+     * @throws IOException
+     */
+    private void scan(FileChannel ch, long size) throws IOException {
+        pos = limit = 0;
+        long offset = 0;
+        long regionStart = -1;
+        int len = (int)Math.min(blockSize, size);
+        fill(ch, len);
+        checksum(pos, len);
+        while(len > 0) {
+            if(findBlock(len) >= 0) {
+                if(regionStart >= 0) {
+                    addRegion(regionStart, offset);
+                    regionStart = -1;
+                }
+                nMatched += len;
+                offset += len;
+                pos += len;
+                len = (int)Math.min(blockSize, size - offset);
+                fill(ch, len);
+                checksum(pos, len);
+                continue;
+            }
+            if(regionStart < 0) {
+                regionStart = offset;
+            }
+            int out = buf[pos] & 0xFF;
+            s1 -= out;
+            s2 -= len * out;
+            if(offset + len < size) {
+                fill(ch, len + 1);
+                s1 += buf[pos + len] & 0xFF;
+                s2 += s1;
+            } else {
+                len--;
+            }
+            pos++;
+            offset++;
+        }
+        if(regionStart >= 0) {
+            addRegion(regionStart, offset);
+        }
+    }
+
+    /**
+     * Finds a block of the base file that matches the current window.
+     *
+     * @param len The length of the window.
+     * @return The block or -1 if none matches.
+     */
+    private int findBlock(int len) {
+        int sum = getWeak();
+        long digest = 0;
+        boolean haveDigest = false;
+        for(int block = heads[hash(sum)]; block >= 0; block = next[block]) {
+            int blockLen = block == nBlocks - 1 ? lastLength : blockSize;
+            if(weak[block] != sum || blockLen != len) {
+                continue;
+            }
+            if(!haveDigest) {
+                digest = digest(pos, len);
+                haveDigest = true;
+            }
+            if(strong[block] == digest) {
+                return block;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Records a changed region, keeping only the first MAX_REGIONS.
+     */
+    private void addRegion(long start, long end) {
+        if(nRegions < MAX_REGIONS) {
+            regions[2 * nRegions] = start;
+            regions[2 * nRegions + 1] = end;
+        }
+        nRegions++;
+    }
+
+    /**
+     * Makes sure need bytes are in the buffer starting at pos, reading more
+     * if necessary.
+     *
+     * @param ch
+     * @param need The number of bytes needed.
+     * @throws IOException
+     */
+    private void fill(FileChannel ch, int need) throws IOException {
+        if(limit - pos >= need) {
+            return;
+        }
+        System.arraycopy(buf, pos, buf, 0, limit - pos);
+        limit -= pos;
+        pos = 0;
+        ByteBuffer bb = ByteBuffer.wrap(buf, limit, buf.length - limit);
+        while(bb.hasRemaining()) {
+            if(ch.read(bb) < 0) {
+                break;
+            }
+        }
+        limit = bb.position();
+        if(limit < need) {
+            throw new IOException("File changed while being compared");
+        }
+    }
+
+    /**
+     * Computes the weak checksum of part of the buffer and sets the sums.
+     *
+     * @return The checksum.
+     */
+    private int checksum(int start, int len) {
+        s1 = 0;
+        s2 = 0;
+        for(int i = 0; i < len; i++) {
+            s1 += buf[start + i] & 0xFF;
+            s2 += s1;
+        }
+        return getWeak();
+    }
+
+    /**
+     * @return The weak checksum from the current sums.
+     */
+    private int getWeak() {
+        return (s1 & 0xFFFF) | (s2 << 16);
+    }
+
+    /**
+     * Gets the hash table index for a weak checksum.
+     */
+    private int hash(int sum) {
+        int h = sum * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (heads.length - 1);
+    }
+
+    /**
+     * Computes the strong digest of part of the buffer.
+     *
+     * @return The first 8 bytes of the digest.
+     */
+    private long digest(int start, int len) {
+        md.update(buf, start, len);
+        byte[] bytes = md.digest();
+        long value = 0;
+        for(int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[i] & 0xFF);
+        }
+        return value;
+    }
+
+}
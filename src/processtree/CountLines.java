@@ -8,12 +8,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
-import java.util.List;
-import java.util.ListIterator;
 
 /**
  * ProcessLicense
@@ -33,7 +28,6 @@ public class CountLines extends ProcessTree
     // A convenience definition. Leave as is.
     public static final String LS = System.getProperty("line.separator");
 
-    private Comparator<File> fileComparator = null;
     private boolean abort = false;
 
     private String[] patterns;;
@@ -50,13 +44,6 @@ public class CountLines extends ProcessTree
      */
     public CountLines() {
         super();
-        fileComparator = new Comparator<File>() {
-            public int compare(File fa, File fb) {
-                if(fa.isDirectory() && !fb.isDirectory()) return -1;
-                if(fb.isDirectory() && !fa.isDirectory()) return 1;
-                return (fa.getName().compareTo(fb.getName()));
-            }
-        };
     }
 
     /*
@@ -108,14 +95,14 @@ public class CountLines extends ProcessTree
             }
             level++;
             if(item.isDirectory()) {
-                File dirList[] = item.listFiles();
-                // Convert it to a list so we can sort it
-                List<File> list = Arrays.asList(dirList);
-                Collections.sort(list, fileComparator);
-                ListIterator<File> iter = list.listIterator();
-                while(iter.hasNext()) {
-                    File file1 = (File)iter.next();
-                    process((Object)file1);
+                DirectoryLister lister = new DirectoryLister(item,
+                    DirectoryLister.Order.DIRECTORIES_FIRST);
+                try {
+                    for(File file1 : lister) {
+                        process((Object)file1);
+                    }
+                } finally {
+                    lister.close();
                 }
             } else {
                 processFile(item);
@@ -0,0 +1,424 @@
+package processtree;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * DeleteEngine
+ *
+ * @author Kenneth Evans, Jr.<br>
+ * <br>
+ *         This class deletes files and directories on a pool of threads while
+ *         the tree is still being walked. Each directory has a Group that
+ *         counts the deletes and subdirectories still pending in it, plus one
+ *         while the walker is still in it. A directory is only deleted when
+ *         its count reaches zero, so directories are deleted after everything
+ *         in them, as in a post-order walk, but separate subtrees are deleted
+ *         in parallel.<br>
+ * <br>
+ *         If there is a quarantine directory, each run gets its own
+ *         subdirectory of it, named by the time, and files are moved there
+ *         with the same relative path instead of being deleted. The run's
+ *         journal starts with the top directory, and each move and directory
+ *         removal is written to it first. A file is never moved over one that
+ *         is already there. The moves are renames, so the quarantine directory
+ *         must be on the same file system. rollback() uses the journal to put
+ *         everything back.<br>
+ * <br>
+ *
+ */
+public class DeleteEngine
+{
+    public static final String LS = System.getProperty("line.separator");
+    /** The name of the journal in the quarantine directory. */
+    public static final String JOURNAL_NAME = "ProcessDAZContent.journal";
+
+    private File top;
+    /** The subdirectory of the quarantine directory for this run, or null. */
+    private File quarantine = null;
+    private Writer journal = null;
+    private ExecutorService pool;
+    private Group root = new Group(null);
+    private CountDownLatch done = new CountDownLatch(1);
+    private AtomicInteger nFailed = new AtomicInteger();
+
+    /**
+     * Group Internal class to count the deletes pending in a directory.
+     */
+    public static class Group
+    {
+        /** The pending items, plus one until the walker is done. */
+        private AtomicInteger pending = new AtomicInteger(1);
+        private AtomicBoolean released = new AtomicBoolean();
+        /** The delete of the directory, or null if it is kept. */
+        private Runnable action = null;
+        private Group parent;
+
+        Group(Group parent) {
+            this.parent = parent;
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param nThreads The number of threads.
+     * @param top The top of the tree being deleted from.
+     * @param quarantine The quarantine directory or null to delete items.
+     * @throws IOException
+     */
+    public DeleteEngine(int nThreads, File top, File quarantine)
+        throws IOException {
+        this.top = top;
+        if(quarantine != null) {
+            Files.createDirectories(quarantine.toPath());
+            if(!Files.getFileStore(quarantine.toPath()).equals(
+                Files.getFileStore(top.toPath()))) {
+                throw new IOException("The quarantine directory must be on"
+                    + " the same file system");
+            }
+            this.quarantine = createRunDir(quarantine);
+            journal = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(new File(this.quarantine, JOURNAL_NAME)),
+                "UTF-8"));
+            writeJournal("T\t" + top.getAbsolutePath());
+        }
+        pool = Executors.newFixedThreadPool(nThreads);
+    }
+
+    /**
+     * Creates a new subdirectory of the quarantine directory for a run, named
+     * by the time.
+     *
+     * @param quarantine
+     * @return
+     * @throws IOException
+     */
+    private static File createRunDir(File quarantine) throws IOException {
+        String name = new SimpleDateFormat("yyyyMMdd-HHmmss")
+            .format(new Date());
+        for(int i = 1;; i++) {
+            File dir = new File(quarantine, i == 1 ? name : name + "-" + i);
+            try {
+                Files.createDirectory(dir.toPath());
+                return dir;
+            } catch(FileAlreadyExistsException ex) {
+                // Try the next one
+            }
+        }
+    }
+
+    /**
+     * @return The subdirectory of the quarantine directory for this run, or
+     *         null if there is none.
+     */
+    public File getQuarantine() {
+        return quarantine;
+    }
+
+    /**
+     * @return The group for the parent of the top directory.
+     */
+    public Group getRoot() {
+        return root;
+    }
+
+    /**
+     * Creates the group for a directory the walker is entering. It is pending
+     * in its parent until it is done.
+     *
+     * @param parent The group of its parent.
+     * @return
+     */
+    public Group newGroup(Group parent) {
+        parent.pending.incrementAndGet();
+        return new Group(parent);
+    }
+
+    /**
+     * Deletes a file when a thread is available.
+     *
+     * @param file
+     * @param group The group of its directory.
+     */
+    public void deleteFile(final File file, final Group group) {
+        group.pending.incrementAndGet();
+        pool.execute(new Runnable() {
+            public void run() {
+                try {
+                    remove(file, false);
+                } finally {
+                    finished(group);
+                }
+            }
+        });
+    }
+
+    /**
+     * Deletes a directory the walker is done with once everything in it has
+     * been deleted.
+     *
+     * @param dir
+     * @param group The group of the directory.
+     */
+    public void deleteDir(final File dir, Group group) {
+        final Group parent = group.parent;
+        group.action = new Runnable() {
+            public void run() {
+                try {
+                    remove(dir, true);
+                } finally {
+                    finished(parent);
+                }
+            }
+        };
+        release(group);
+    }
+
+    /**
+     * Tells the group the walker is done with its directory. Does nothing if
+     * that has already been done.
+     *
+     * @param group
+     */
+    public void release(Group group) {
+        if(group.released.compareAndSet(false, true)) {
+            finished(group);
+        }
+    }
+
+    /**
+     * Counts a pending item in a group as done. If it was the last one,
+     * starts the delete of the directory, or if it is kept, counts it as done
+     * in its parent.
+     *
+     * @param group
+     */
+    private void finished(Group group) {
+        while(group.pending.decrementAndGet() == 0) {
+            if(group == root) {
+                done.countDown();
+                return;
+            }
+            if(group.action != null) {
+                pool.execute(group.action);
+                return;
+            }
+            group = group.parent;
+        }
+    }
+
+    /**
+     * Deletes or quarantines a file or an empty directory.
+     *
+     * @param file
+     * @param isDir
+     */
+    private void remove(File file, boolean isDir) {
+        String relative = null;
+        try {
+            if(quarantine == null) {
+                Files.delete(file.toPath());
+                return;
+            }
+            relative = top.toPath().relativize(file.toPath()).toString();
+            Path target = new File(quarantine, relative).toPath();
+            if(!isDir && Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+                // ATOMIC_MOVE would replace it
+                throw new FileAlreadyExistsException(target.toString());
+            }
+            writeJournal((isDir ? "D\t" : "F\t") + relative);
+            if(isDir) {
+                Files.delete(file.toPath());
+            } else {
+                Files.createDirectories(target.getParent());
+                Files.move(file.toPath(), target,
+                    StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch(Exception ex) {
+            nFailed.incrementAndGet();
+            System.out.println("Failed to delete " + file.getPath() + ": "
+                + ex);
+            if(relative != null && file.exists()) {
+                // Tell rollback it is still there
+                try {
+                    writeJournal("K\t" + relative);
+                } catch(IOException ex1) {
+                    // Rollback will report it
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a line to the journal and flushes it.
+     *
+     * @param line
+     * @throws IOException
+     */
+    private synchronized void writeJournal(String line) throws IOException {
+        journal.write(line + "\n");
+        journal.flush();
+    }
+
+    /**
+     * Waits for all the deletes to finish and stops the threads. The walker
+     * must have released the group for the top directory.
+     *
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    public void finish() throws InterruptedException, IOException {
+        release(root);
+        done.await();
+        pool.shutdown();
+        if(journal != null) {
+            journal.close();
+        }
+    }
+
+    /**
+     * @return The number of deletes that failed.
+     */
+    public int getFailedCount() {
+        return nFailed.get();
+    }
+
+    /**
+     * Puts back everything in a run's journal in the reverse order, so
+     * directories are created before what was in them. A file that is
+     * missing from the quarantine directory, or whose place is taken, is not
+     * put back and counts as a failure. Deletes the journal and the emptied
+     * subdirectory if everything was put back.
+     *
+     * @param top The top of the tree the items were deleted from, or null to
+     *            use the one in the journal.
+     * @param quarantine The subdirectory of the quarantine directory for the
+     *            run.
+     * @return The number of items that could not be put back.
+     * @throws IOException
+     */
+    public static int rollback(File top, File quarantine) throws IOException {
+        File journalFile = new File(quarantine, JOURNAL_NAME);
+        if(!journalFile.exists()) {
+            throw new IOException("No " + JOURNAL_NAME + " in "
+                + quarantine.getPath());
+        }
+        List<String> lines = new ArrayList<String>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+            new FileInputStream(journalFile), "UTF-8"));
+        try {
+            String line;
+            while((line = in.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            in.close();
+        }
+        // Check the top directory
+        if(!lines.isEmpty() && lines.get(0).startsWith("T\t")) {
+            File journalTop = new File(lines.get(0).substring(2));
+            if(top != null
+                && !top.getAbsoluteFile().equals(journalTop)
+                && !(top.exists() && journalTop.exists() && Files.isSameFile(
+                    top.toPath(), journalTop.toPath()))) {
+                throw new IOException("The journal is for "
+                    + journalTop.getPath());
+            }
+            top = journalTop;
+        } else if(top == null) {
+            throw new IOException("The journal does not say where the items"
+                + " came from");
+        }
+        int nFailed = 0;
+        int nRestored = 0;
+        Set<String> kept = new HashSet<String>();
+        for(int i = lines.size() - 1; i >= 0; i--) {
+            String line = lines.get(i);
+            if(line.length() < 2 || line.charAt(1) != '\t') {
+                continue;
+            }
+            char type = line.charAt(0);
+            String relative = line.substring(2);
+            if(type == 'K') {
+                // The item was not removed
+                kept.add(relative);
+                continue;
+            }
+            if(type != 'D' && type != 'F' || kept.remove(relative)) {
+                continue;
+            }
+            Path path = new File(top, relative).toPath();
+            try {
+                if(type == 'D') {
+                    Files.createDirectories(path);
+                } else {
+                    Path source = new File(quarantine, relative).toPath();
+                    if(!Files.exists(source, LinkOption.NOFOLLOW_LINKS)) {
+                        throw new IOException("Missing from "
+                            + quarantine.getPath());
+                    }
+                    if(Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+                        throw new FileAlreadyExistsException(path.toString());
+                    }
+                    Files.createDirectories(path.getParent());
+                    Files.move(source, path, StandardCopyOption.ATOMIC_MOVE);
+                }
+                nRestored++;
+            } catch(Exception ex) {
+                nFailed++;
+                System.out.println("Failed to restore " + path + ": " + ex);
+            }
+        }
+        System.out.println("Restored " + nRestored + " items" + LS);
+        if(nFailed == 0) {
+            journalFile.delete();
+            deleteEmptyDirs(quarantine);
+        }
+        return nFailed;
+    }
+
+    /**
+     * Deletes a directory if it only has empty directories in it.
+     *
+     * @param dir
+     * @return Whether it was deleted.
+     */
+    private static boolean deleteEmptyDirs(File dir) {
+        File[] files = dir.listFiles();
+        if(files == null) {
+            return false;
+        }
+        boolean empty = true;
+        for(File file : files) {
+            if(!file.isDirectory() || !deleteEmptyDirs(file)) {
+                empty = false;
+            }
+        }
+        return empty && dir.delete();
+    }
+
+}
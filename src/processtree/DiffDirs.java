@@ -1,15 +1,26 @@
 package processtree;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.Path;
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.ListIterator;
-
-import runutils.Run;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * DiffDirs
@@ -17,7 +28,22 @@ import runutils.Run;
  * @author Kenneth Evans, Jr.<br>
  * <br>
  *         This class compares files in a given directory to those in another
- *         given directory.<br>
+ *         given directory. Both directories are listed in name order and
+ *         walked together, so items that are only in one of them are found
+ *         without probing the other, and each item is only checked once.<br>
+ * <br>
+ *         The work is done in a pipeline. The walker lists the directories
+ *         and hands pairs of files to a pool of comparer threads. Each item is
+ *         also put on a bounded queue in the order it was found, and a
+ *         reporter thread prints the results from that queue, waiting for
+ *         each comparison to finish, so the output is in the same order as
+ *         the walk. When the queue is full the walker waits.<br>
+ * <br>
+ *         If moves are being found, the files that are only in one of the
+ *         directories are kept until the walk is done. Files whose size is
+ *         found on both sides are hashed in parallel, and files with the same
+ *         contents are reported as moved or renamed rather than as removed
+ *         and added.<br>
  * <br>
  * 
  */
@@ -32,6 +58,31 @@ public class DiffDirs extends ProcessTree
     private boolean dryRun = DRY_RUN;
     private static final boolean VERBOSE = true;
     private boolean verbose = VERBOSE;
+    /** Whether to consider files with the same size and lastMod the same */
+    private static final boolean TRUST_MTIME = false;
+    private boolean trustMtime = TRUST_MTIME;
+    /** Whether to summarize the blocks that changed rather than the lines */
+    private static final boolean BLOCK_DELTA = false;
+    private boolean blockDelta = BLOCK_DELTA;
+    /** Whether to look for files that were moved or renamed */
+    private static final boolean FIND_MOVES = false;
+    private boolean findMoves = FIND_MOVES;
+
+    /** The number of comparer threads */
+    private static final int N_THREADS = 4;
+    private int nThreads = N_THREADS;
+    /** The maximum number of lines in a part of a file that differs */
+    private int maxDiffLines = LineDiff.MAX_LINES;
+    /** The number of path elements to try to match for files with the same
+     * contents when finding moves */
+    private static final int MATCH_DEPTH = 3;
+    /** The maximum number of items waiting to be reported */
+    private static final int QUEUE_SIZE = 1024;
+
+    /** The file for the digest cache, or null to compare contents directly. */
+    private String digestFileName = null;
+    /** The digest cache, or null. */
+    private DigestCache digestCache = null;
 
     /** The directory to compare against. */
     private String baseDir = null;
@@ -39,33 +90,89 @@ public class DiffDirs extends ProcessTree
     private String processDir = null;
     /** Whether the base directory is specified. */
     protected boolean baseDirSpecified = false;
-    /** The length of the directory name. */
-    private int dirNameLength = Integer.MAX_VALUE;
-    /** Comparator to use for sorting files */
-    private Comparator<File> fileComparator = null;
 
     /** Number of directories processed */
     private int nDirsProcessed = 0;
-    /** Number of directories deleted */
+    /** Number of files that differ */
     private int nFilesFailed = 0;
     /** Number of files processed */
     private int nFilesProcessed = 0;
+    /** Number of items only in the directory to be compared */
+    private int nAdded = 0;
+    /** Number of items only in the base directory */
+    private int nRemoved = 0;
+    /** Number of items that are a file in one and a directory in the other */
+    private int nTypeChanged = 0;
+    /** Number of files moved to another directory */
+    private int nMoved = 0;
+    /** Number of files renamed in the same directory */
+    private int nRenamed = 0;
+
+    /** Files only in the base directory, when finding moves */
+    private List<Candidate> removedFiles = new ArrayList<Candidate>();
+    /** Files only in the directory to be compared, when finding moves */
+    private List<Candidate> addedFiles = new ArrayList<Candidate>();
+    /** Number of files decided by size */
+    private AtomicInteger nBySize = new AtomicInteger();
+    /** Number of files decided by size and lastMod */
+    private AtomicInteger nByMtime = new AtomicInteger();
+    /** Number of files decided by digest */
+    private AtomicInteger nByDigest = new AtomicInteger();
+    /** Number of files decided by comparing contents */
+    private AtomicInteger nByContent = new AtomicInteger();
+
+    /** The comparer threads */
+    private ExecutorService comparers = null;
+    /** The items waiting to be reported, in the order they were found */
+    private BlockingQueue<Future<Result>> reportQueue = null;
+    /** Marks the end of the items to be reported */
+    private static final Future<Result> END = new FutureTask<Result>(
+        new Callable<Result>() {
+            public Result call() {
+                return null;
+            }
+        });
 
     /** The time the application was started [milliseconds] */
     private long start;
 
+    /**
+     * Result Internal class to hold the output for an item and whether it
+     * failed.
+     */
+    static class Result
+    {
+        StringBuilder text = new StringBuilder();
+        boolean failed = false;
+    }
+
+    /**
+     * Candidate Internal class to hold a file that is only in one of the
+     * directories when finding moves.
+     */
+    static class Candidate
+    {
+        File file;
+        /** The path relative to its top directory */
+        String path;
+        BasicFileAttributes attrs;
+        /** The digest being computed, or null if not needed */
+        Future<String> digest = null;
+        /** The matching file in the other directory, or null */
+        Candidate match = null;
+
+        Candidate(File file, String path, BasicFileAttributes attrs) {
+            this.file = file;
+            this.path = path;
+            this.attrs = attrs;
+        }
+    }
+
     /**
      * Constructor.
      */
     public DiffDirs() {
         super();
-        fileComparator = new Comparator<File>() {
-            public int compare(File fa, File fb) {
-                if(fa.isDirectory() && !fb.isDirectory()) return -1;
-                if(fb.isDirectory() && !fa.isDirectory()) return 1;
-                return (fa.getName().compareTo(fb.getName()));
-            }
-        };
     }
 
     /*
@@ -93,6 +200,23 @@ public class DiffDirs extends ProcessTree
         System.out.println("\nDirectories processed=" + nDirsProcessed);
         System.out.println("Files: Processed=" + nFilesProcessed + " Failed="
             + nFilesFailed);
+        System.out.println("Items: Added=" + nAdded + " Removed=" + nRemoved
+            + " Type changed=" + nTypeChanged);
+        if(findMoves) {
+            System.out.println("Files: Moved=" + nMoved + " Renamed="
+                + nRenamed);
+        }
+        System.out.println("Decided by: Size=" + nBySize + " Mtime="
+            + nByMtime + " Digest=" + nByDigest + " Content=" + nByContent);
+        if(digestCache != null) {
+            System.out.println("Digests: Cached=" + digestCache.getHits()
+                + " Computed=" + digestCache.getComputed());
+            try {
+                digestCache.save(digestFileName);
+            } catch(Exception ex) {
+                excMsg("Error saving " + digestFileName, ex);
+            }
+        }
     }
 
     /*
@@ -102,109 +226,574 @@ public class DiffDirs extends ProcessTree
      */
     public void process(Object obj) {
         File item = (File)obj;
-        try {
-            if(item == null) {
-                return;
+        if(item == null) {
+            return;
+        }
+        File processItem = new File(processDir);
+        comparers = Executors.newFixedThreadPool(nThreads);
+        reportQueue = new ArrayBlockingQueue<Future<Result>>(QUEUE_SIZE);
+        Thread reporter = new Thread(new Runnable() {
+            public void run() {
+                printResults();
             }
-            level++;
-            if(item.isDirectory()) {
-                File dirList[] = item.listFiles();
-                List<File> list = Arrays.asList(dirList);
-                Collections.sort(list, fileComparator);
-                ListIterator<File> iter = list.listIterator();
-                while(iter.hasNext()) {
-                    File file1 = (File)iter.next();
-                    process((Object)file1);
-                }
-                processDir(item);
-            } else {
-                processFile(item);
+        }, "DiffDirs reporter");
+        reporter.start();
+        try {
+            BasicFileAttributes attrs1 = DigestCache.getAttributes(item);
+            BasicFileAttributes attrs2 = DigestCache.getAttributes(processItem);
+            processPair(item, attrs1, processItem, attrs2);
+            if(findMoves) {
+                reportMoves();
             }
         } catch(Exception ex) {
             System.err.println("Processing error:" + LS + ex + LS
                 + ex.getMessage());
             System.err.println();
         } finally {
+            try {
+                enqueue(END);
+                reporter.join();
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            comparers.shutdown();
+        }
+    }
+
+    /**
+     * Prints the results from the report queue in order until the end marker
+     * is found. Runs in the reporter thread.
+     */
+    private void printResults() {
+        while(true) {
+            Future<Result> future;
+            try {
+                future = reportQueue.take();
+            } catch(InterruptedException ex) {
+                return;
+            }
+            if(future == END) {
+                return;
+            }
+            try {
+                Result result = future.get();
+                System.out.print(result.text);
+                if(result.failed) {
+                    nFilesFailed++;
+                }
+            } catch(ExecutionException ex) {
+                // The cause may be an Error, such as OutOfMemoryError
+                excMsg("Error comparing", ex.getCause());
+                nFilesFailed++;
+            } catch(InterruptedException ex) {
+                return;
+            } catch(RuntimeException ex) {
+                // Keep going, or the walker would wait for the queue forever
+                excMsg("Error reporting", ex);
+                nFilesFailed++;
+            }
+        }
+    }
+
+    /**
+     * Puts an item on the report queue, waiting if it is full.
+     * 
+     * @param future
+     * @throws InterruptedException
+     */
+    private void enqueue(Future<Result> future) throws InterruptedException {
+        reportQueue.put(future);
+    }
+
+    /**
+     * Queues a line of output from the walker to be printed in order.
+     * 
+     * @param line
+     */
+    private void report(String line) {
+        final Result result = new Result();
+        result.text.append(line).append(LS);
+        FutureTask<Result> task = new FutureTask<Result>(
+            new Callable<Result>() {
+                public Result call() {
+                    return result;
+                }
+            });
+        task.run();
+        try {
+            enqueue(task);
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Method to process an item that is in both directories.
+     * 
+     * @param file1 The base item.
+     * @param attrs1 The attributes of the base item.
+     * @param file2 The item to be compared.
+     * @param attrs2 The attributes of the item to be compared.
+     */
+    void processPair(File file1, BasicFileAttributes attrs1, File file2,
+        BasicFileAttributes attrs2) {
+        if(attrs1.isDirectory() && attrs2.isDirectory()) {
+            processDir(file1, file2);
+        } else if(!attrs1.isDirectory() && !attrs2.isDirectory()) {
+            processFile(file1, attrs1, file2, attrs2);
+        } else {
+            report("Type changed: " + file2.getPath() + " is a "
+                + (attrs2.isDirectory() ? "directory" : "file") + " but was a "
+                + (attrs1.isDirectory() ? "directory" : "file"));
+            nTypeChanged++;
+        }
+    }
+
+    /**
+     * Method to process a file that is in both directories. The comparison is
+     * queued for the comparer threads.
+     * 
+     * @param file1 The base file.
+     * @param attrs1 The attributes of the base file.
+     * @param file2 The file to be compared.
+     * @param attrs2 The attributes of the file to be compared.
+     */
+    void processFile(final File file1, final BasicFileAttributes attrs1,
+        final File file2, final BasicFileAttributes attrs2) {
+        nFilesProcessed++;
+        FutureTask<Result> task = new FutureTask<Result>(
+            new Callable<Result>() {
+                public Result call() {
+                    Result result = new Result();
+                    result.failed = !diff(file1, attrs1, file2, attrs2,
+                        result.text);
+                    return result;
+                }
+            });
+        try {
+            // Queue it first so the report queue limits the work waiting
+            enqueue(task);
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        comparers.execute(task);
+    }
+
+    /**
+     * Method to process a directory that is in both directories. Both are
+     * listed in name order and the listings are merged.
+     * 
+     * @param dir1 The base directory.
+     * @param dir2 The directory to be compared.
+     */
+    void processDir(File dir1, File dir2) {
+        nDirsProcessed++;
+        level++;
+        DirectoryLister lister1 = null;
+        DirectoryLister lister2 = null;
+        try {
+            lister1 = new DirectoryLister(dir1, DirectoryLister.Order.NAME);
+            lister2 = new DirectoryLister(dir2, DirectoryLister.Order.NAME);
+            Iterator<File> iter1 = lister1.iterator();
+            Iterator<File> iter2 = lister2.iterator();
+            File file1 = iter1.hasNext() ? iter1.next() : null;
+            File file2 = iter2.hasNext() ? iter2.next() : null;
+            while(file1 != null || file2 != null) {
+                int cmp;
+                if(file1 == null) {
+                    cmp = 1;
+                } else if(file2 == null) {
+                    cmp = -1;
+                } else {
+                    cmp = file1.getName().compareTo(file2.getName());
+                }
+                try {
+                    if(cmp < 0) {
+                        processRemoved(file1,
+                            DigestCache.getAttributes(file1));
+                    } else if(cmp > 0) {
+                        processAdded(file2, DigestCache.getAttributes(file2));
+                    } else {
+                        processPair(file1, DigestCache.getAttributes(file1),
+                            file2, DigestCache.getAttributes(file2));
+                    }
+                } catch(Exception ex) {
+                    report(excText("Error comparing "
+                        + (cmp > 0 ? file2.getPath() : file1.getPath()), ex));
+                }
+                if(cmp <= 0) {
+                    file1 = iter1.hasNext() ? iter1.next() : null;
+                }
+                if(cmp >= 0) {
+                    file2 = iter2.hasNext() ? iter2.next() : null;
+                }
+            }
+        } catch(Exception ex) {
+            report(excText("Error listing " + dir1.getPath() + " or "
+                + dir2.getPath(), ex));
+        } finally {
+            if(lister1 != null) {
+                lister1.close();
+            }
+            if(lister2 != null) {
+                lister2.close();
+            }
             level--;
         }
     }
 
     /**
-     * Method to process a file.
+     * Method to process an item that is only in the directory to be compared.
      * 
      * @param file
+     * @param attrs
      */
-    void processFile(File file) {
-        nFilesProcessed++;
+    void processAdded(File file, BasicFileAttributes attrs) {
+        if(findMoves) {
+            addCandidates(file, attrs, new File(processDir), addedFiles);
+            return;
+        }
+        report("Added: " + file.getPath()
+            + (attrs.isDirectory() ? File.separator : ""));
+        nAdded++;
+    }
+
+    /**
+     * Method to process an item that is only in the base directory.
+     * 
+     * @param file
+     * @param attrs
+     */
+    void processRemoved(File file, BasicFileAttributes attrs) {
+        if(findMoves) {
+            addCandidates(file, attrs, new File(baseDir), removedFiles);
+            return;
+        }
+        report("Removed: " + file.getPath()
+            + (attrs.isDirectory() ? File.separator : ""));
+        nRemoved++;
+    }
+
+    /**
+     * Adds a file, or the files in a directory, to a list of candidates for
+     * moves.
+     * 
+     * @param file
+     * @param attrs
+     * @param top The top directory for this side.
+     * @param list
+     */
+    private void addCandidates(File file, BasicFileAttributes attrs, File top,
+        List<Candidate> list) {
+        if(!attrs.isDirectory()) {
+            Path path = top.toPath().relativize(file.toPath());
+            list.add(new Candidate(file, path.toString(), attrs));
+            return;
+        }
+        DirectoryLister lister = null;
         try {
-            String fileName = file.getPath();
-            File processFile = new File(processDir, fileName.substring(
-                dirNameLength, fileName.length()));
-            if(processFile.exists()) {
-                boolean ok = diff(file, processFile);
-                if(!ok) {
-                    nFilesFailed++;
+            lister = new DirectoryLister(file, DirectoryLister.Order.NAME);
+            for(File file1 : lister) {
+                addCandidates(file1, DigestCache.getAttributes(file1), top,
+                    list);
+            }
+        } catch(Exception ex) {
+            report(excText("Error listing " + file.getPath(), ex));
+        } finally {
+            if(lister != null) {
+                lister.close();
+            }
+        }
+    }
+
+    /**
+     * Matches the files that are only in one of the directories by their
+     * contents and reports them as moved, renamed, removed, or added. Only
+     * files whose size is found on both sides are hashed. Empty files are
+     * not matched, as they would match any other empty file.
+     */
+    private void reportMoves() {
+        // Hash the files whose size is on both sides
+        if(!dryRun) {
+            Map<Long, List<Candidate>> removedBySize = new HashMap<Long, List<Candidate>>();
+            for(Candidate removed : removedFiles) {
+                if(removed.attrs.size() == 0) {
+                    continue;
                 }
+                List<Candidate> list = removedBySize.get(removed.attrs.size());
+                if(list == null) {
+                    list = new ArrayList<Candidate>();
+                    removedBySize.put(removed.attrs.size(), list);
+                }
+                list.add(removed);
+            }
+            for(Candidate added : addedFiles) {
+                List<Candidate> list = removedBySize.get(added.attrs.size());
+                if(list == null || added.attrs.size() == 0) {
+                    continue;
+                }
+                startDigest(added);
+                for(Candidate removed : list) {
+                    startDigest(removed);
+                }
+            }
+        }
+
+        // Match files with the same contents. When there are several, first
+        // match those with the same last MATCH_DEPTH path elements, then
+        // fewer, down to none.
+        for(int depth = MATCH_DEPTH; depth >= 0; depth--) {
+            Map<String, ArrayDeque<Candidate>> removedByKey = new HashMap<String, ArrayDeque<Candidate>>();
+            for(Candidate removed : removedFiles) {
+                String key = removed.match == null ? getKey(removed) : null;
+                if(key == null) {
+                    continue;
+                }
+                key += " " + getTail(removed.path, depth);
+                ArrayDeque<Candidate> list = removedByKey.get(key);
+                if(list == null) {
+                    list = new ArrayDeque<Candidate>();
+                    removedByKey.put(key, list);
+                }
+                list.add(removed);
+            }
+            for(Candidate added : addedFiles) {
+                String key = added.match == null ? getKey(added) : null;
+                if(key == null) {
+                    continue;
+                }
+                ArrayDeque<Candidate> list = removedByKey.get(key + " "
+                    + getTail(added.path, depth));
+                if(list == null || list.isEmpty()) {
+                    continue;
+                }
+                Candidate removed = list.poll();
+                removed.match = added;
+                added.match = removed;
+            }
+        }
+
+        // Report them
+        for(Candidate removed : removedFiles) {
+            if(removed.match == null) {
+                report("Removed: " + removed.file.getPath());
+                nRemoved++;
+                continue;
+            }
+            String parent1 = new File(removed.path).getParent();
+            String parent2 = new File(removed.match.path).getParent();
+            if(parent1 == null ? parent2 == null : parent1.equals(parent2)) {
+                report("Renamed: " + removed.file.getPath() + " -> "
+                    + removed.match.file.getPath());
+                nRenamed++;
             } else {
-                System.out.println("Does not exist: " + processFile);
-                nFilesFailed++;
+                report("Moved: " + removed.file.getPath() + " -> "
+                    + removed.match.file.getPath());
+                nMoved++;
             }
-        } catch(Exception ex) {
-            excMsg("Error deleting " + file.getPath(), ex);
         }
+        for(Candidate added : addedFiles) {
+            if(added.match == null) {
+                report("Added: " + added.file.getPath());
+                nAdded++;
+            }
+        }
+        removedFiles.clear();
+        addedFiles.clear();
     }
 
     /**
-     * Method to process a directory.
+     * Gets the last elements of a relative path.
      * 
-     * @param dir
+     * @param path
+     * @param depth The number of elements.
+     * @return
      */
-    void processDir(File dir) {
-        nDirsProcessed++;
+    private static String getTail(String path, int depth) {
+        if(depth == 0) {
+            return "";
+        }
+        int index = path.length();
+        for(int i = 0; i < depth && index >= 0; i++) {
+            index = path.lastIndexOf(File.separatorChar, index - 1);
+        }
+        return index < 0 ? path : path.substring(index + 1);
+    }
+
+    /**
+     * Starts computing the digest of a candidate on the comparer threads if
+     * it has not been started.
+     * 
+     * @param candidate
+     */
+    private void startDigest(final Candidate candidate) {
+        if(candidate.digest != null) {
+            return;
+        }
+        candidate.digest = comparers.submit(new Callable<String>() {
+            public String call() throws IOException {
+                if(digestCache != null) {
+                    return digestCache.getDigest(candidate.file,
+                        candidate.attrs);
+                }
+                return DigestCache.computeDigest(candidate.file);
+            }
+        });
     }
 
     /**
-     * Diff two files.
+     * Gets the key used to match the contents of a candidate, waiting for its
+     * digest.
+     * 
+     * @param candidate
+     * @return The key or null if there is no digest.
+     */
+    private String getKey(Candidate candidate) {
+        if(candidate.digest == null) {
+            return null;
+        }
+        try {
+            return candidate.attrs.size() + " " + candidate.digest.get();
+        } catch(ExecutionException ex) {
+            report(excText("Error hashing " + candidate.file.getPath(),
+                ex.getCause()));
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        // Do not try again
+        candidate.digest = null;
+        return null;
+    }
+
+    /**
+     * Diff two files. Files with different sizes differ. If trustMtime is set,
+     * files with the same size and lastMod are the same. Otherwise, if there
+     * is a digest cache, the digests are compared, else the contents are
+     * compared in this process. The lines that differ are only found for
+     * files that differ.
      * 
      * @param file1 Should be the base file
      * @param file2 Should be the process file.
      */
     public boolean diff(File file1, File file2) {
-        boolean res = true;
-        String cmd = null;
-        if(!dryRun) {
-            cmd = "diff \"" + file1.getPath() + "\" \"" + file2.getPath()
-                + "\"";
-            if(verbose) {
-                System.out.println(cmd);
-            }
-        } else {
-            cmd = "ls \"" + file2.getPath() + "\"";
-            System.out.println("Simulating " + cmd);
-        }
-        Run run = new Run();
-        run.setLineTerminator(LS);
-        int retCode = run.exec(cmd);
-        if(retCode != 0) {
-            res = false;
-            System.out.println("Failed: " + file1.getPath());
-            // Print output
-            String output = run.getOutput();
-            if(output != null) {
-                System.out.println(output);
-            }
-            // Print error output
-            String errOutput = run.getErrOutput();
-            if(errOutput != null && errOutput.length() > 0) {
-                System.out.println("Error output:");
-                System.out.println(errOutput);
+        try {
+            return diff(file1, DigestCache.getAttributes(file1), file2,
+                DigestCache.getAttributes(file2));
+        } catch(Exception ex) {
+            excMsg("Error comparing " + file1.getPath(), ex);
+            return false;
+        }
+    }
+
+    /**
+     * Diff two files whose attributes are known.
+     * 
+     * @param file1 Should be the base file
+     * @param attrs1
+     * @param file2 Should be the process file.
+     * @param attrs2
+     */
+    public boolean diff(File file1, BasicFileAttributes attrs1, File file2,
+        BasicFileAttributes attrs2) {
+        StringBuilder out = new StringBuilder();
+        boolean ok = diff(file1, attrs1, file2, attrs2, out);
+        System.out.print(out);
+        return ok;
+    }
+
+    /**
+     * Diff two files whose attributes are known, appending the output to the
+     * given StringBuilder. Can be called from several threads.
+     * 
+     * @param file1 Should be the base file
+     * @param attrs1
+     * @param file2 Should be the process file.
+     * @param attrs2
+     * @param out
+     */
+    boolean diff(File file1, BasicFileAttributes attrs1, File file2,
+        BasicFileAttributes attrs2, StringBuilder out) {
+        if(dryRun) {
+            out.append("Simulating compare \"" + file1.getPath() + "\" \""
+                + file2.getPath() + "\"" + LS);
+            return true;
+        }
+        if(verbose) {
+            out.append("compare \"" + file1.getPath() + "\" \""
+                + file2.getPath() + "\"" + LS);
+        }
+        String reason = null;
+        try {
+            if(attrs1.size() != attrs2.size()) {
+                nBySize.incrementAndGet();
+                reason = "sizes " + attrs1.size() + " and " + attrs2.size();
+            } else if(trustMtime
+                && attrs1.lastModifiedTime().equals(attrs2.lastModifiedTime())) {
+                nByMtime.incrementAndGet();
+            } else if(digestCache != null) {
+                nByDigest.incrementAndGet();
+                if(!digestCache.getDigest(file1, attrs1).equals(
+                    digestCache.getDigest(file2, attrs2))) {
+                    reason = "digests differ";
+                }
+            } else {
+                nByContent.incrementAndGet();
+                long offset = FileComparer.compare(file1, file2);
+                if(offset >= 0) {
+                    reason = "first difference at byte " + offset;
+                }
             }
-        } else {
+        } catch(Exception ex) {
+            out.append(excText("Error comparing " + file1.getPath(), ex) + LS);
+            return false;
+        }
+        if(reason == null) {
             if(verbose) {
-                System.out.println("Succeeded");
+                out.append("Succeeded" + LS);
+            }
+            return true;
+        }
+        out.append("Failed: " + file1.getPath() + " (" + reason + ")" + LS);
+        printDiff(file1, file2, out);
+        return false;
+    }
+
+    /**
+     * Prints the differences between two files that are known to differ.
+     * 
+     * @param file1 Should be the base file
+     * @param file2 Should be the process file.
+     */
+    public void printDiff(File file1, File file2) {
+        StringBuilder out = new StringBuilder();
+        printDiff(file1, file2, out);
+        System.out.print(out);
+    }
+
+    /**
+     * Appends the differences between two files that are known to differ to
+     * the given StringBuilder in unified diff format. Only the part of the
+     * files that differs is read into memory, and if it is larger than
+     * maxDiffLines lines only its line ranges are given. If blockDelta is
+     * set, the amount that changed and where is given instead.
+     * 
+     * @param file1 Should be the base file
+     * @param file2 Should be the process file.
+     * @param out
+     */
+    void printDiff(File file1, File file2, StringBuilder out) {
+        try {
+            if(blockDelta) {
+                new BlockDelta().delta(file1, file2, out);
+            } else {
+                new LineDiff(maxDiffLines).diff(file1, file2, out);
             }
+        } catch(IOException ex) {
+            out.append(excText("Error finding differences for "
+                + file1.getPath(), ex) + LS);
         }
-        return res;
+        out.append(LS);
     }
 
     /**
@@ -214,10 +803,19 @@ public class DiffDirs extends ProcessTree
      * @param msg
      * @param ex
      */
-    public static void excMsg(String msg, Exception ex) {
-        final String fullMsg = msg += LS + "Exception: " + ex + LS
-            + ex.getMessage();
-        System.out.println(fullMsg);
+    public static void excMsg(String msg, Throwable ex) {
+        System.out.println(excText(msg, ex));
+    }
+
+    /**
+     * Gets the text used by excMsg.
+     * 
+     * @param msg
+     * @param ex
+     * @return
+     */
+    public static String excText(String msg, Throwable ex) {
+        return msg + LS + "Exception: " + ex + LS + ex.getMessage();
     }
 
     /**
@@ -241,12 +839,30 @@ public class DiffDirs extends ProcessTree
         for(i = 0; i < args.length; i++) {
             if(args[i].startsWith("-")) {
                 switch(args[i].charAt(1)) {
+                case 'b':
+                    blockDelta = false;
+                    break;
+                case 'c':
+                    digestFileName = args[++i];
+                    break;
                 case 'd':
                     dryRun = false;
                     break;
                 case 'h':
                     usage();
                     System.exit(0);
+                case 'j':
+                    nThreads = Integer.parseInt(args[++i]);
+                    break;
+                case 'l':
+                    maxDiffLines = Integer.parseInt(args[++i]);
+                    break;
+                case 'm':
+                    trustMtime = false;
+                    break;
+                case 'r':
+                    findMoves = false;
+                    break;
                 default:
                     System.err.println("\n\nInvalid option: " + args[i]);
                     usage();
@@ -254,12 +870,21 @@ public class DiffDirs extends ProcessTree
                 }
             } else if(args[i].startsWith("+")) {
                 switch(args[i].charAt(1)) {
+                case 'b':
+                    blockDelta = true;
+                    break;
                 case 'd':
                     dryRun = true;
                     break;
                 case 'h':
                     usage();
                     System.exit(0);
+                case 'm':
+                    trustMtime = true;
+                    break;
+                case 'r':
+                    findMoves = true;
+                    break;
                 default:
                     System.err.println("\n\nInvalid option: " + args[i]);
                     usage();
@@ -274,7 +899,6 @@ public class DiffDirs extends ProcessTree
                     // baseDir is in the dirList and will be processed
                     baseDir = args[i];
                     baseDirSpecified = true;
-                    dirNameLength = baseDir.length();
                     dirList.add(baseDir);
                 }
             }
@@ -289,11 +913,28 @@ public class DiffDirs extends ProcessTree
             usage();
             return false;
         }
+        if(nThreads < 1) {
+            System.out.println("Invalid number of threads: " + nThreads);
+            usage();
+            return false;
+        }
+
+        if(digestFileName != null) {
+            digestCache = new DigestCache();
+            try {
+                digestCache.load(digestFileName);
+            } catch(Exception ex) {
+                excMsg("Error loading " + digestFileName, ex);
+            }
+        }
 
         System.out.println("DiffDir");
         if(dryRun) {
             System.out.println("Dry Run");
         }
+        if(trustMtime) {
+            System.out.println("Files with the same size and lastMod are the same");
+        }
         System.out.println(timeStamp(start));
         System.out.println("Directory to Check: " + processDir);
         System.out.println("Base directory: " + dirList.firstElement());
@@ -324,9 +965,21 @@ public class DiffDirs extends ProcessTree
             + " to a base directory.\n"
             + "Usage: DiffDirs [Options] processDir baseDir\n"
             + "  Compares items in processDir to those in baseDir\n"
+            + "  Reports items that were added, removed, or changed\n"
             + "    -h      Help (This message)\n\n"
             + "    +d      Dry run (No items deleted)\n"
-            + "    -d      Not a dry run (Items will be deleted)\n\n" + "");
+            + "    -d      Not a dry run (Items will be deleted)\n\n"
+            + "    +m      Files with the same size and lastMod are the same\n"
+            + "    -m      Always check the contents\n\n"
+            + "    +r      Find files that were moved or renamed\n"
+            + "    -r      Report moved files as removed and added\n\n"
+            + "    +b      Show how many bytes changed and where\n"
+            + "    -b      Show the lines that changed\n\n"
+            + "    -c file Cache file for content digests\n"
+            + "    -j n    Number of threads comparing files (Default "
+            + N_THREADS + ")\n"
+            + "    -l n    Maximum lines to compare in a file that differs\n"
+            + "            (Default " + LineDiff.MAX_LINES + ")\n" + "");
     }
 
     /**
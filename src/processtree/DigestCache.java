@@ -0,0 +1,259 @@
+package processtree;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * DigestCache
+ *
+ * @author Kenneth Evans, Jr.<br>
+ * <br>
+ *         This class holds content digests of files, keyed by path and
+ *         validated by size, modification time, and file key (the inode on
+ *         Unix). It can be loaded from and saved to a file so the digests of
+ *         unchanged files do not have to be computed again on the next run. It
+ *         is safe to use from several threads.<br>
+ * <br>
+ *
+ */
+public class DigestCache
+{
+    public static final String DIGEST_ALGORITHM = "MD5";
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** Buffers for computing digests, one per thread. */
+    private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    /** The cached entries loaded from the file. */
+    private Map<String, Entry> oldEntries = new ConcurrentHashMap<String, Entry>();
+    /** The entries used or computed in this run. */
+    private Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private AtomicLong nHits = new AtomicLong();
+    private AtomicLong nComputed = new AtomicLong();
+
+    /**
+     * Entry Internal class to hold a digest and what it is valid for.
+     */
+    static class Entry
+    {
+        long size;
+        long lastMod;
+        String fileKey;
+        String digest;
+
+        Entry(long size, long lastMod, String fileKey, String digest) {
+            this.size = size;
+            this.lastMod = lastMod;
+            this.fileKey = fileKey;
+            this.digest = digest;
+        }
+
+        boolean matches(long size, long lastMod, String fileKey) {
+            return this.size == size && this.lastMod == lastMod
+                && this.fileKey.equals(fileKey);
+        }
+    }
+
+    /**
+     * Gets the attributes of a file with one stat.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static BasicFileAttributes getAttributes(File file)
+        throws IOException {
+        return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+    }
+
+    /**
+     * Gets the digest of a file, from the cache if the size, modification
+     * time, and file key are unchanged, otherwise by reading the file.
+     *
+     * @param file
+     * @param attrs The attributes of the file.
+     * @return The digest as a hex String.
+     * @throws IOException
+     */
+    public String getDigest(File file, BasicFileAttributes attrs)
+        throws IOException {
+        String path = file.getAbsolutePath();
+        long size = attrs.size();
+        long lastMod = attrs.lastModifiedTime().toMillis();
+        Object key = attrs.fileKey();
+        String fileKey = key == null ? "" : key.toString();
+        Entry entry = entries.get(path);
+        if(entry == null) {
+            entry = oldEntries.get(path);
+        }
+        if(entry != null && entry.matches(size, lastMod, fileKey)) {
+            nHits.incrementAndGet();
+            entries.put(path, entry);
+            return entry.digest;
+        }
+        String digest = computeDigest(file);
+        nComputed.incrementAndGet();
+        entries.put(path, new Entry(size, lastMod, fileKey, digest));
+        return digest;
+    }
+
+    /**
+     * Computes the digest of a file.
+     *
+     * @param file
+     * @return The digest as a hex String.
+     * @throws IOException
+     */
+    public static String computeDigest(File file) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch(NoSuchAlgorithmException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+        ByteBuffer buf = buffers.get();
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel ch = in.getChannel();
+            buf.clear();
+            while(ch.read(buf) >= 0 || buf.position() > 0) {
+                buf.flip();
+                md.update(buf);
+                buf.clear();
+            }
+        } finally {
+            in.close();
+        }
+        byte[] bytes = md.digest();
+        char[] chars = new char[2 * bytes.length];
+        for(int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Loads the cache from a file, if it exists. The format is one line per
+     * file with tab-separated size, modification time, file key, digest, and
+     * path.
+     *
+     * @param fileName
+     * @throws IOException
+     */
+    public void load(String fileName) throws IOException {
+        File file = new File(fileName);
+        if(!file.exists()) return;
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+            new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while((line = in.readLine()) != null) {
+                String[] tokens = line.split("\t", 5);
+                if(tokens.length < 5) continue;
+                try {
+                    oldEntries.put(tokens[4], new Entry(Long
+                        .parseLong(tokens[0]), Long.parseLong(tokens[1]),
+                        tokens[2], tokens[3]));
+                } catch(NumberFormatException ex) {
+                    // Skip it
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Saves the entries used or computed in this run to a file, together with
+     * the loaded entries that were not used but are still valid, so a run over
+     * part of a tree does not drop the digests for the rest. Loaded entries
+     * for files that no longer exist or have changed are left out.
+     *
+     * @param fileName
+     * @throws IOException
+     */
+    public void save(String fileName) throws IOException {
+        PrintWriter out = new PrintWriter(new BufferedWriter(
+            new OutputStreamWriter(new FileOutputStream(fileName), "UTF-8")));
+        try {
+            for(Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+                write(out, mapEntry.getKey(), mapEntry.getValue());
+            }
+            for(Map.Entry<String, Entry> mapEntry : oldEntries.entrySet()) {
+                String path = mapEntry.getKey();
+                if(entries.containsKey(path)) continue;
+                Entry entry = mapEntry.getValue();
+                BasicFileAttributes attrs;
+                try {
+                    attrs = getAttributes(new File(path));
+                } catch(IOException ex) {
+                    // It no longer exists
+                    continue;
+                }
+                Object key = attrs.fileKey();
+                if(!attrs.isRegularFile()
+                    || !entry.matches(attrs.size(), attrs.lastModifiedTime()
+                        .toMillis(), key == null ? "" : key.toString())) {
+                    continue;
+                }
+                write(out, path, entry);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes one entry in the format read by load. Skips entries that cannot
+     * be read back.
+     *
+     * @param out
+     * @param path
+     * @param entry
+     */
+    private static void write(PrintWriter out, String path, Entry entry) {
+        if(path.indexOf('\n') >= 0 || path.indexOf('\r') >= 0
+            || entry.fileKey.indexOf('\t') >= 0) {
+            return;
+        }
+        out.print(entry.size + "\t" + entry.lastMod + "\t" + entry.fileKey
+            + "\t" + entry.digest + "\t" + path + "\n");
+    }
+
+    /**
+     * @return The number of digests found in the cache.
+     */
+    public long getHits() {
+        return nHits.get();
+    }
+
+    /**
+     * @return The number of digests computed.
+     */
+    public long getComputed() {
+        return nComputed.get();
+    }
+
+}
@@ -0,0 +1,360 @@
+package processtree;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * DirectoryLister
+ *
+ * @author Kenneth Evans, Jr.<br>
+ * <br>
+ *         This class lists the entries of a directory without creating a
+ *         File[] for the whole directory. Unsorted listings are streamed
+ *         directly from a DirectoryStream. Sorted listings are sorted in memory
+ *         in runs of at most runSize entries. If there is more than one run,
+ *         the runs are written to temporary files and merged, so a directory
+ *         with millions of entries does not need to fit in memory. Whether an
+ *         entry is a directory is only checked once per entry, not once per
+ *         comparison.<br>
+ * <br>
+ *
+ *         Use it in a for loop and close it in a finally block. The
+ *         temporary files are deleted by close().<br>
+ * <br>
+ *
+ */
+public class DirectoryLister implements Iterable<File>, Closeable
+{
+    /** Default maximum number of entries to sort in memory. */
+    public static final int RUN_SIZE = 100000;
+
+    public static enum Order {
+        NONE, NAME, DIRECTORIES_FIRST, FILES_FIRST,
+    };
+
+    private File dir;
+    private Order order;
+    private int runSize;
+    /** The stream for unsorted listings, or null. */
+    private DirectoryStream<Path> stream = null;
+    /** The sorted entries when there is only one run, or null. */
+    private List<Entry> entries = null;
+    /** The temporary files for the runs. */
+    private List<File> runFiles = new ArrayList<File>();
+    /** The readers for the runs being merged. */
+    private List<Run> runs = new ArrayList<Run>();
+    private Comparator<Entry> comparator;
+    private boolean iteratorCalled = false;
+    /** The number of entries returned so far. */
+    private int count = 0;
+
+    /**
+     * Entry Internal class to hold a name and whether it is a directory.
+     */
+    static class Entry
+    {
+        String name;
+        boolean isDir;
+
+        Entry(String name, boolean isDir) {
+            this.name = name;
+            this.isDir = isDir;
+        }
+    }
+
+    /**
+     * Run Internal class to read back a sorted run during the merge.
+     */
+    static class Run
+    {
+        DataInputStream in;
+        Entry head = null;
+
+        Run(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)));
+            advance();
+        }
+
+        /**
+         * Reads the next entry into head, or sets head to null at the end.
+         */
+        void advance() throws IOException {
+            try {
+                boolean isDir = in.readBoolean();
+                head = new Entry(in.readUTF(), isDir);
+            } catch(EOFException ex) {
+                head = null;
+            }
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param dir
+     * @param order
+     * @throws IOException
+     */
+    public DirectoryLister(File dir, Order order) throws IOException {
+        this(dir, order, RUN_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param dir
+     * @param order
+     * @param runSize Maximum number of entries to sort in memory.
+     * @throws IOException
+     */
+    public DirectoryLister(File dir, Order order, int runSize)
+        throws IOException {
+        this.dir = dir;
+        this.order = order;
+        this.runSize = runSize;
+        stream = Files.newDirectoryStream(dir.toPath());
+        if(order != Order.NONE) {
+            comparator = getComparator(order);
+            // Delete any runs already written if the listing fails
+            try {
+                sort();
+            } catch(IOException ex) {
+                close();
+                throw ex;
+            } catch(RuntimeException ex) {
+                close();
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Gets the comparator for the given order.
+     *
+     * @param order
+     * @return
+     */
+    private static Comparator<Entry> getComparator(final Order order) {
+        return new Comparator<Entry>() {
+            public int compare(Entry ea, Entry eb) {
+                if(ea.isDir != eb.isDir) {
+                    if(order == Order.DIRECTORIES_FIRST) {
+                        return ea.isDir ? -1 : 1;
+                    } else if(order == Order.FILES_FIRST) {
+                        return ea.isDir ? 1 : -1;
+                    }
+                }
+                return ea.name.compareTo(eb.name);
+            }
+        };
+    }
+
+    /**
+     * Reads the directory, sorting it in runs, and prepares the merge if there
+     * is more than one run.
+     *
+     * @throws IOException
+     */
+    private void sort() throws IOException {
+        boolean needDir = order != Order.NAME;
+        List<Entry> list = new ArrayList<Entry>();
+        try {
+            for(Path path : stream) {
+                String name = path.getFileName().toString();
+                list.add(new Entry(name, needDir && Files.isDirectory(path)));
+                if(list.size() >= runSize) {
+                    writeRun(list);
+                    list.clear();
+                }
+            }
+        } finally {
+            stream.close();
+            stream = null;
+        }
+        if(runFiles.isEmpty()) {
+            Collections.sort(list, comparator);
+            entries = list;
+            return;
+        }
+        if(!list.isEmpty()) {
+            writeRun(list);
+        }
+        for(File file : runFiles) {
+            runs.add(new Run(file));
+        }
+    }
+
+    /**
+     * Sorts a run and writes it to a temporary file.
+     *
+     * @param list
+     * @throws IOException
+     */
+    private void writeRun(List<Entry> list) throws IOException {
+        Collections.sort(list, comparator);
+        File file = File.createTempFile("DirectoryLister", ".run");
+        runFiles.add(file);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(file)));
+        try {
+            for(Entry entry : list) {
+                out.writeBoolean(entry.isDir);
+                out.writeUTF(entry.name);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Iterable#iterator()
+     */
+    public Iterator<File> iterator() {
+        if(iteratorCalled) {
+            throw new IllegalStateException("Can only be iterated once");
+        }
+        iteratorCalled = true;
+        if(stream != null) {
+            final Iterator<Path> iter = stream.iterator();
+            return new Iterator<File>() {
+                public boolean hasNext() {
+                    return iter.hasNext();
+                }
+
+                public File next() {
+                    count++;
+                    return new File(dir, iter.next().getFileName().toString());
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+        if(entries != null) {
+            final Iterator<Entry> iter = entries.iterator();
+            return new Iterator<File>() {
+                public boolean hasNext() {
+                    return iter.hasNext();
+                }
+
+                public File next() {
+                    count++;
+                    return new File(dir, iter.next().name);
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+        return new MergeIterator();
+    }
+
+    /**
+     * MergeIterator Internal class to merge the sorted runs.
+     */
+    class MergeIterator implements Iterator<File>
+    {
+        private PriorityQueue<Run> queue;
+
+        MergeIterator() {
+            queue = new PriorityQueue<Run>(Math.max(1, runs.size()),
+                new Comparator<Run>() {
+                    public int compare(Run ra, Run rb) {
+                        return comparator.compare(ra.head, rb.head);
+                    }
+                });
+            for(Run run : runs) {
+                if(run.head != null) {
+                    queue.add(run);
+                }
+            }
+        }
+
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        public File next() {
+            Run run = queue.poll();
+            if(run == null) {
+                throw new NoSuchElementException();
+            }
+            String name = run.head.name;
+            try {
+                run.advance();
+            } catch(IOException ex) {
+                throw new RuntimeException("Error reading sorted run: "
+                    + ex.getMessage(), ex);
+            }
+            if(run.head != null) {
+                queue.add(run);
+            }
+            count++;
+            return new File(dir, name);
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * @return The number of entries returned so far.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.Closeable#close()
+     */
+    public void close() {
+        if(stream != null) {
+            try {
+                stream.close();
+            } catch(IOException ex) {
+                // Do nothing
+            }
+            stream = null;
+        }
+        for(Run run : runs) {
+            try {
+                run.in.close();
+            } catch(IOException ex) {
+                // Do nothing
+            }
+        }
+        runs.clear();
+        for(File file : runFiles) {
+            file.delete();
+        }
+        runFiles.clear();
+        entries = null;
+    }
+
+}
@@ -0,0 +1,151 @@
+package processtree;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * FileCommitter
+ *
+ * @author Kenneth Evans, Jr.<br>
+ * <br>
+ *         This class replaces files without a window where they are missing.
+ *         The new contents are written to a temporary file next to the
+ *         original, which is then moved over it with an atomic rename. After a
+ *         crash a file is either the old one or the new one. There may be a
+ *         leftover temporary file, whose name starts with the name of the
+ *         file and ends with TEMP_SUFFIX.<br>
+ * <br>
+ *         If sync is set, each file is forced to disk before it is renamed,
+ *         and the directories with renamed files are forced to disk every
+ *         SYNC_BATCH commits and in sync(), rather than after each one.<br>
+ * <br>
+ *         The methods may be called from several threads.<br>
+ * <br>
+ *
+ */
+public class FileCommitter
+{
+    /** The suffix for temporary files. */
+    public static final String TEMP_SUFFIX = ".tmp";
+    /** The number of commits after which the directories are synced. */
+    public static final int SYNC_BATCH = 100;
+
+    private boolean sync;
+    /** The directories that have not been synced. */
+    private Set<File> pendingDirs = new LinkedHashSet<File>();
+    private int nPending = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param sync Whether to force files and directories to disk.
+     */
+    public FileCommitter(boolean sync) {
+        this.sync = sync;
+    }
+
+    /**
+     * Creates an empty temporary file in the same directory as a file.
+     *
+     * @param file The file to be replaced.
+     * @return
+     * @throws IOException
+     */
+    public File createTemp(File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        return Files.createTempFile(dir.toPath(), "." + file.getName() + ".",
+            TEMP_SUFFIX).toFile();
+    }
+
+    /**
+     * Replaces a file with a temporary file from createTemp. The temporary
+     * file gets the permissions of the file it replaces.
+     *
+     * @param temp
+     * @param file
+     * @throws IOException
+     */
+    public void commit(File temp, File file) throws IOException {
+        Path tempPath = temp.toPath();
+        Path path = file.toPath();
+        if(Files.exists(path)) {
+            try {
+                Files.setPosixFilePermissions(tempPath,
+                    Files.getPosixFilePermissions(path));
+            } catch(UnsupportedOperationException ex) {
+                // Not a POSIX file system
+            }
+        }
+        if(sync) {
+            FileChannel channel = FileChannel.open(tempPath,
+                StandardOpenOption.WRITE);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        }
+        Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE);
+        if(sync) {
+            boolean full;
+            synchronized(this) {
+                pendingDirs.add(file.getAbsoluteFile().getParentFile());
+                full = ++nPending >= SYNC_BATCH;
+            }
+            if(full) {
+                sync();
+            }
+        }
+    }
+
+    /**
+     * Deletes a temporary file that is not going to be committed. Does
+     * nothing if it is null or does not exist.
+     *
+     * @param temp
+     */
+    public void discard(File temp) {
+        if(temp == null) return;
+        try {
+            Files.deleteIfExists(temp.toPath());
+        } catch(IOException ex) {
+            System.err.println("Failed to delete temporary file:"
+                + System.getProperty("line.separator") + temp.getPath());
+        }
+    }
+
+    /**
+     * Forces the directories with files committed since the last sync to
+     * disk. Does nothing if sync is not set. Some systems cannot sync
+     * directories, and those errors are ignored.
+     */
+    public void sync() {
+        File[] dirs;
+        synchronized(this) {
+            dirs = pendingDirs.toArray(new File[pendingDirs.size()]);
+            pendingDirs.clear();
+            nPending = 0;
+        }
+        for(File dir : dirs) {
+            try {
+                FileChannel channel = FileChannel.open(dir.toPath(),
+                    StandardOpenOption.READ);
+                try {
+                    channel.force(true);
+                } finally {
+                    channel.close();
+                }
+            } catch(IOException ex) {
+                // Not supported for directories, as on Windows
+            }
+        }
+    }
+
+}
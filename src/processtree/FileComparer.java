@@ -0,0 +1,165 @@
+package processtree;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * FileComparer
+ *
+ * @author Kenneth Evans, Jr.<br>
+ * <br>
+ *         This class compares the contents of two files without starting a
+ *         process. Large files are memory mapped a window at a time and
+ *         compared 8 bytes at a time. Small files are read into buffers that
+ *         are reused by each thread. The comparison stops at the first
+ *         difference.<br>
+ * <br>
+ *
+ */
+public class FileComparer
+{
+    /** Files smaller than this are read rather than mapped. */
+    public static final int SMALL_SIZE = 256 * 1024;
+    /** The size of the mapped window for large files. */
+    public static final long WINDOW_SIZE = 64L * 1024 * 1024;
+
+    /** Buffers for small files, one pair per thread. */
+    private static final ThreadLocal<ByteBuffer[]> buffers = new ThreadLocal<ByteBuffer[]>() {
+        protected ByteBuffer[] initialValue() {
+            return new ByteBuffer[] {ByteBuffer.allocateDirect(SMALL_SIZE),
+                ByteBuffer.allocateDirect(SMALL_SIZE)};
+        }
+    };
+
+    /**
+     * Compares two files.
+     *
+     * @param file1
+     * @param file2
+     * @return The offset of the first byte that differs, or -1 if the files
+     *         are identical. If one file is a prefix of the other, the offset
+     *         is the length of the shorter one.
+     * @throws IOException
+     */
+    public static long compare(File file1, File file2) throws IOException {
+        FileInputStream in1 = new FileInputStream(file1);
+        try {
+            FileInputStream in2 = new FileInputStream(file2);
+            try {
+                return compare(in1.getChannel(), in2.getChannel());
+            } finally {
+                in2.close();
+            }
+        } finally {
+            in1.close();
+        }
+    }
+
+    /**
+     * Compares the contents of two channels from the beginning.
+     *
+     * @param ch1
+     * @param ch2
+     * @return The offset of the first byte that differs, or -1 if identical.
+     * @throws IOException
+     */
+    public static long compare(FileChannel ch1, FileChannel ch2)
+        throws IOException {
+        long size1 = ch1.size();
+        long size2 = ch2.size();
+        long size = Math.min(size1, size2);
+        long offset;
+        if(size <= SMALL_SIZE) {
+            offset = compareSmall(ch1, ch2, (int)size);
+        } else {
+            offset = compareMapped(ch1, ch2, size);
+        }
+        if(offset < 0 && size1 != size2) {
+            offset = size;
+        }
+        return offset;
+    }
+
+    /**
+     * Compares the first size bytes by reading them into the buffers for this
+     * thread.
+     */
+    private static long compareSmall(FileChannel ch1, FileChannel ch2, int size)
+        throws IOException {
+        ByteBuffer[] bufs = buffers.get();
+        ByteBuffer buf1 = bufs[0];
+        ByteBuffer buf2 = bufs[1];
+        read(ch1, buf1, size);
+        read(ch2, buf2, size);
+        int index = mismatch(buf1, buf2, size);
+        return index < 0 ? -1 : index;
+    }
+
+    /**
+     * Reads size bytes from the start of the channel into the buffer and
+     * flips it.
+     */
+    private static void read(FileChannel ch, ByteBuffer buf, int size)
+        throws IOException {
+        buf.clear();
+        buf.limit(size);
+        long position = 0;
+        while(buf.hasRemaining()) {
+            int n = ch.read(buf, position);
+            if(n < 0) {
+                throw new IOException("File changed while being compared");
+            }
+            position += n;
+        }
+        buf.flip();
+    }
+
+    /**
+     * Compares the first size bytes by mapping WINDOW_SIZE bytes of each
+     * channel at a time.
+     */
+    private static long compareMapped(FileChannel ch1, FileChannel ch2,
+        long size) throws IOException {
+        for(long position = 0; position < size; position += WINDOW_SIZE) {
+            int len = (int)Math.min(WINDOW_SIZE, size - position);
+            ByteBuffer buf1 = ch1.map(FileChannel.MapMode.READ_ONLY,
+                position, len);
+            ByteBuffer buf2 = ch2.map(FileChannel.MapMode.READ_ONLY,
+                position, len);
+            int index = mismatch(buf1, buf2, len);
+            if(index >= 0) {
+                return position + index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the first index at which two buffers differ, comparing 8 bytes at
+     * a time. The positions of the buffers are not used.
+     *
+     * @param buf1
+     * @param buf2
+     * @param len The number of bytes to compare.
+     * @return The index or -1 if the first len bytes are the same.
+     */
+    static int mismatch(ByteBuffer buf1, ByteBuffer buf2, int len) {
+        int i = 0;
+        int longEnd = len - 7;
+        for(; i < longEnd; i += 8) {
+            if(buf1.getLong(i) != buf2.getLong(i)) {
+                break;
+            }
+        }
+        for(; i < len; i++) {
+            if(buf1.get(i) != buf2.get(i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
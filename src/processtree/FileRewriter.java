@@ -0,0 +1,128 @@
+package processtree;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * FileRewriter
+ *
+ * @author Kenneth Evans, Jr.<br>
+ * <br>
+ *         This class writes a changed copy of a file given the byte ranges
+ *         that change. Only the new bytes are written from memory. The
+ *         unchanged ranges are copied with FileChannel.transferTo, so the
+ *         rest of the file is not decoded or re-encoded and its line endings
+ *         and characters stay exactly as they were.<br>
+ * <br>
+ *
+ */
+public class FileRewriter
+{
+    private List<Edit> edits = new ArrayList<Edit>();
+    /** The end of the last edit. */
+    private long end = 0;
+
+    /**
+     * Edit Internal class to hold a range to replace.
+     */
+    static class Edit
+    {
+        long start;
+        long length;
+        byte[] bytes;
+
+        Edit(long start, long length, byte[] bytes) {
+            this.start = start;
+            this.length = length;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Adds a range to replace. Ranges must be added in order and not
+     * overlap.
+     *
+     * @param start The offset in the original file.
+     * @param length The number of bytes to replace. Use 0 to insert.
+     * @param bytes The new bytes.
+     */
+    public void replace(long start, long length, byte[] bytes) {
+        if(start < end || length < 0) {
+            throw new IllegalArgumentException("Edits must be in order");
+        }
+        edits.add(new Edit(start, length, bytes));
+        end = start + length;
+    }
+
+    /**
+     * @return Whether there are any edits.
+     */
+    public boolean hasEdits() {
+        return !edits.isEmpty();
+    }
+
+    /**
+     * Writes the changed copy of a file.
+     *
+     * @param source The original file.
+     * @param dest The file to write. It is replaced if it exists.
+     * @throws IOException
+     */
+    public void write(File source, File dest) throws IOException {
+        FileChannel in = FileChannel.open(source.toPath(),
+            StandardOpenOption.READ);
+        try {
+            FileChannel out = FileChannel.open(dest.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+            try {
+                long size = in.size();
+                if(end > size) {
+                    throw new IOException(source.getPath()
+                        + " is shorter than expected");
+                }
+                long pos = 0;
+                for(Edit edit : edits) {
+                    transfer(in, pos, edit.start - pos, out);
+                    ByteBuffer buf = ByteBuffer.wrap(edit.bytes);
+                    while(buf.hasRemaining()) {
+                        out.write(buf);
+                    }
+                    pos = edit.start + edit.length;
+                }
+                transfer(in, pos, size - pos, out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Copies part of a file to a channel.
+     *
+     * @param in
+     * @param pos
+     * @param count
+     * @param out
+     * @throws IOException
+     */
+    private static void transfer(FileChannel in, long pos, long count,
+        FileChannel out) throws IOException {
+        while(count > 0) {
+            long n = in.transferTo(pos, count, out);
+            if(n <= 0) {
+                throw new IOException("File changed while being copied");
+            }
+            pos += n;
+            count -= n;
+        }
+    }
+
+}
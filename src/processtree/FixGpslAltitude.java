@@ -9,12 +9,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
-import java.util.List;
-import java.util.ListIterator;
 
 /**
  * ProcessLicense
@@ -57,8 +52,9 @@ public class FixGpslAltitude extends ProcessTree
         + LS;
     public static final double METERS_TO_FEET = 3.280839895;
 
-    private Comparator<File> fileComparator = null;
     private boolean abort = false;
+    // Replaces the files that are fixed. Use -s to force them to disk.
+    private FileCommitter committer = new FileCommitter(false);
 
     private int nProcessed = 0;
 
@@ -76,13 +72,6 @@ public class FixGpslAltitude extends ProcessTree
     public FixGpslAltitude() {
         super();
         dirList.add(SRC_DIR);
-        fileComparator = new Comparator<File>() {
-            public int compare(File fa, File fb) {
-                if(fa.isDirectory() && !fb.isDirectory()) return -1;
-                if(fb.isDirectory() && !fa.isDirectory()) return 1;
-                return (fa.getName().compareTo(fb.getName()));
-            }
-        };
     }
 
     /*
@@ -107,6 +96,7 @@ public class FixGpslAltitude extends ProcessTree
      * @see processtree.ProcessTree#processEnd(java.lang.Object)
      */
     public void processEnd(Object obj) {
+        committer.sync();
         System.out.printf("\nProcessed: %d\n", nProcessed);
     }
 
@@ -123,14 +113,14 @@ public class FixGpslAltitude extends ProcessTree
             }
             level++;
             if(item.isDirectory()) {
-                File dirList[] = item.listFiles();
-                // Convert it to a list so we can sort it
-                List<File> list = Arrays.asList(dirList);
-                Collections.sort(list, fileComparator);
-                ListIterator<File> iter = list.listIterator();
-                while(iter.hasNext()) {
-                    File file1 = (File)iter.next();
-                    process((Object)file1);
+                DirectoryLister lister = new DirectoryLister(item,
+                    DirectoryLister.Order.DIRECTORIES_FIRST);
+                try {
+                    for(File file1 : lister) {
+                        process((Object)file1);
+                    }
+                } finally {
+                    lister.close();
                 }
             } else {
                 processFile(item);
@@ -273,8 +263,8 @@ public class FixGpslAltitude extends ProcessTree
     }
 
     /**
-     * Method that fixes the altitude in a .gpsl file. The old file is renamed
-     * to a backup, which is deleted on success.
+     * Method that fixes the altitude in a .gpsl file. The new file is written
+     * to a temporary file, which then replaces the old one.
      * 
      * @param file
      * @param replace Whether to replace the old license or to just add the new
@@ -308,35 +298,17 @@ public class FixGpslAltitude extends ProcessTree
                 return;
             }
         }
-        String inName = file.getPath();
-        String bkpName = inName + ".BKP";
-        File bkpFile = new File(bkpName);
-        Boolean result;
-        if(bkpFile.exists()) {
-            result = bkpFile.delete();
-            if(!result) {
-                System.err.println("Failed to delete existing backup file:"
-                    + LS + bkpFile.getPath());
-                abort = true;
-                return;
-            }
-        }
-        result = file.renameTo(bkpFile);
-        if(!result) {
-            System.err.println("Failed to rename original file:" + LS
-                + bkpFile.getPath());
-            abort = true;
-            return;
-        }
         // Do it
+        File tempFile = null;
         BufferedReader in = null;
         PrintWriter out = null;
         String[] tokens;
         int nTokens;
         double val;
         try {
-            in = new BufferedReader(new FileReader(bkpFile));
-            out = new PrintWriter(new FileWriter(file));
+            tempFile = committer.createTemp(file);
+            in = new BufferedReader(new FileReader(file));
+            out = new PrintWriter(new FileWriter(tempFile));
             String line;
 //            int lineNum = 0;
             Mode mode = Mode.NONE;
@@ -390,16 +362,12 @@ public class FixGpslAltitude extends ProcessTree
             in.close();
             out.close();
             in = null;
-            out = null;
-            if(file.exists()) {
-                result = bkpFile.delete();
-                if(!result) {
-                    System.err.println("Failed to delete backup file:" + LS
-                        + bkpFile.getPath());
-                    abort = true;
-                    return;
-                }
+            if(out.checkError()) {
+                throw new IOException("Error writing " + tempFile.getPath());
             }
+            out = null;
+            committer.commit(tempFile, file);
+            tempFile = null;
             System.out.println("  Done");
         } catch(Exception ex) {
             ex.printStackTrace();
@@ -410,8 +378,8 @@ public class FixGpslAltitude extends ProcessTree
             } catch(IOException ex) {
                 ex.printStackTrace();
                 abort = true;
-                return;
             }
+            committer.discard(tempFile);
         }
     }
 
@@ -429,6 +397,9 @@ public class FixGpslAltitude extends ProcessTree
                 case 'h':
                     usage();
                     System.exit(0);
+                case 's':
+                    committer = new FileCommitter(true);
+                    break;
                 default:
                     System.err.println("\n\nInvalid option: " + args[i]);
                     usage();
@@ -460,7 +431,8 @@ public class FixGpslAltitude extends ProcessTree
         System.out.println("\nUsage: java " + this.getClass().getName()
             + " [Options]\n"
             + "  FixGpsAltitude: Fix altitude in .gpsl files\n"
-            + "    -h        Help (This message)\n" + "");
+            + "    -h        Help (This message)\n"
+            + "    -s        Sync fixed files to disk\n" + "");
     }
 
     /**
@@ -0,0 +1,603 @@
+package processtree;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LineDiff
+ *
+ * @author Kenneth Evans, Jr.<br>
+ * <br>
+ *         This class writes the differences between two files in unified diff
+ *         format without starting a process. The common beginning and end of
+ *         the files are found by streaming through them a block at a time, so
+ *         only the part that differs, plus a few lines of context, is read
+ *         into memory. That part is compared with the linear space version of
+ *         the Myers algorithm. If it is larger than maxLines lines or
+ *         MAX_BYTES bytes, only a summary hunk giving the line ranges is
+ *         written. The bytes are read as ISO-8859-1, so any file can be
+ *         compared and line endings are kept as they are.<br>
+ * <br>
+ *
+ */
+public class LineDiff
+{
+    /** Default maximum number of lines in the part that differs. */
+    public static final int MAX_LINES = 20000;
+    /** Maximum number of bytes in the part that differs. */
+    public static final long MAX_BYTES = 16 * 1024 * 1024;
+    /** Number of lines of context around each hunk. */
+    public static final int CONTEXT = 3;
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final Charset CHARSET = Charset.forName("ISO-8859-1");
+    private static final String LS = System.getProperty("line.separator");
+
+    private static final byte EQUAL = 0;
+    private static final byte DELETE = 1;
+    private static final byte INSERT = 2;
+
+    private int maxLines;
+    private byte[] buf1 = new byte[BLOCK_SIZE];
+    private byte[] buf2 = new byte[BLOCK_SIZE];
+
+    /**
+     * Region Internal class to hold the part of a file that differs.
+     */
+    static class Region
+    {
+        long start;
+        long end;
+        /** The lines, or null if the region is too large. */
+        List<String> lines = null;
+        int nLines = 0;
+    }
+
+    /**
+     * Constructor.
+     */
+    public LineDiff() {
+        this(MAX_LINES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxLines Maximum number of lines in the part that differs.
+     */
+    public LineDiff(int maxLines) {
+        this.maxLines = maxLines;
+    }
+
+    /**
+     * Writes the differences between two files.
+     *
+     * @param file1 The old file.
+     * @param file2 The new file.
+     * @param out
+     * @return Whether the files differ.
+     * @throws IOException
+     */
+    public boolean diff(File file1, File file2, Appendable out)
+        throws IOException {
+        FileInputStream in1 = new FileInputStream(file1);
+        try {
+            FileInputStream in2 = new FileInputStream(file2);
+            try {
+                return diff(file1.getPath(), in1.getChannel(), file2.getPath(),
+                    in2.getChannel(), out);
+            } finally {
+                in2.close();
+            }
+        } finally {
+            in1.close();
+        }
+    }
+
+    /**
+     * Writes the differences between two channels.
+     *
+     * @param name1 The name to use for the old file.
+     * @param ch1
+     * @param name2 The name to use for the new file.
+     * @param ch2
+     * @param out
+     * @return Whether they differ.
+     * @throws IOException
+     */
+    public boolean diff(String name1, FileChannel ch1, String name2,
+        FileChannel ch2, Appendable out) throws IOException {
+        long size1 = ch1.size();
+        long size2 = ch2.size();
+
+        // Find the common beginning, keeping the starts of the last lines
+        long[] starts = new long[CONTEXT + 1];
+        int nLines = 0;
+        long pos = 0;
+        boolean binary = false;
+        while(true) {
+            int n1 = read(ch1, pos, buf1, BLOCK_SIZE);
+            int n2 = read(ch2, pos, buf2, BLOCK_SIZE);
+            if(pos == 0) {
+                binary = isBinary(buf1, n1) || isBinary(buf2, n2);
+            }
+            int n = Math.min(n1, n2);
+            int i = 0;
+            while(i < n && buf1[i] == buf2[i]) {
+                if(buf1[i] == '\n') {
+                    nLines++;
+                    starts[nLines % starts.length] = pos + i + 1;
+                }
+                i++;
+            }
+            pos += i;
+            if(i < n || n < BLOCK_SIZE) {
+                break;
+            }
+        }
+        if(pos == size1 && pos == size2) {
+            return false;
+        }
+        if(binary) {
+            out.append("Binary files " + name1 + " and " + name2 + " differ"
+                + LS);
+            return true;
+        }
+        // The start of the line with the first difference
+        long lineStart = starts[nLines % starts.length];
+        int nBefore = Math.min(CONTEXT, nLines);
+        long start = starts[(nLines - nBefore) % starts.length];
+        int firstLine = nLines - nBefore + 1;
+
+        // Find the common end, not overlapping the line with the first
+        // difference
+        long maxSuffix = Math.min(size1, size2) - lineStart;
+        long suffix = 0;
+        while(suffix < maxSuffix) {
+            int len = (int)Math.min(BLOCK_SIZE, maxSuffix - suffix);
+            readFully(ch1, size1 - suffix - len, buf1, len);
+            readFully(ch2, size2 - suffix - len, buf2, len);
+            int i = len - 1;
+            while(i >= 0 && buf1[i] == buf2[i]) {
+                i--;
+            }
+            suffix += len - 1 - i;
+            if(i >= 0) {
+                break;
+            }
+        }
+        // Move the end of the differing part to a line start in both, then
+        // past the context
+        long end1 = size1 - suffix;
+        long end2 = size2 - suffix;
+        if(!isLineStart(ch1, end1, lineStart)
+            || !isLineStart(ch2, end2, lineStart)) {
+            end1 = skipLines(ch1, end1, size1, 1);
+        }
+        end1 = skipLines(ch1, end1, size1, CONTEXT);
+        end2 = end1 + size2 - size1;
+
+        Region region1 = readRegion(ch1, start, end1);
+        Region region2 = readRegion(ch2, start, end2);
+        out.append("--- " + name1 + LS);
+        out.append("+++ " + name2 + LS);
+        if(region1.lines == null || region2.lines == null) {
+            out.append("@@ -" + range(firstLine, region1.nLines) + " +"
+                + range(firstLine, region2.nLines) + " @@"
+                + " Too many differences to show" + LS);
+            return true;
+        }
+        writeHunks(region1.lines, region2.lines, firstLine, out);
+        return true;
+    }
+
+    /**
+     * Reads from a channel at the given position until len bytes are read or
+     * the end is reached.
+     *
+     * @return The number of bytes read.
+     */
+    private static int read(FileChannel ch, long pos, byte[] buf, int len)
+        throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(buf, 0, len);
+        while(bb.hasRemaining()) {
+            int n = ch.read(bb, pos + bb.position());
+            if(n < 0) {
+                break;
+            }
+        }
+        return bb.position();
+    }
+
+    /**
+     * Reads exactly len bytes from a channel at the given position.
+     */
+    private static void readFully(FileChannel ch, long pos, byte[] buf,
+        int len) throws IOException {
+        if(read(ch, pos, buf, len) != len) {
+            throw new IOException("File changed while being compared");
+        }
+    }
+
+    /**
+     * Determines if a block looks like binary data.
+     */
+    private static boolean isBinary(byte[] buf, int len) {
+        for(int i = 0; i < len; i++) {
+            if(buf[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determines if a position is at the start of a line.
+     *
+     * @param ch
+     * @param pos
+     * @param lineStart A known line start at or before pos.
+     * @return
+     */
+    private boolean isLineStart(FileChannel ch, long pos, long lineStart)
+        throws IOException {
+        if(pos == lineStart) {
+            return true;
+        }
+        readFully(ch, pos - 1, buf1, 1);
+        return buf1[0] == '\n';
+    }
+
+    /**
+     * Gets the position after the given number of line ends.
+     *
+     * @param ch
+     * @param pos The position to start from.
+     * @param limit The position to stop at.
+     * @param count The number of line ends.
+     * @return The position, or limit if there are not that many.
+     */
+    private long skipLines(FileChannel ch, long pos, long limit, int count)
+        throws IOException {
+        while(count > 0 && pos < limit) {
+            int len = (int)Math.min(BLOCK_SIZE, limit - pos);
+            readFully(ch, pos, buf1, len);
+            int i = 0;
+            for(; i < len && count > 0; i++) {
+                if(buf1[i] == '\n') {
+                    count--;
+                }
+            }
+            pos += i;
+        }
+        return pos;
+    }
+
+    /**
+     * Reads the lines in part of a channel. If there are too many, only
+     * counts them.
+     *
+     * @param ch
+     * @param start
+     * @param end
+     * @return
+     */
+    private Region readRegion(FileChannel ch, long start, long end)
+        throws IOException {
+        Region region = new Region();
+        region.start = start;
+        region.end = end;
+        if(end - start > MAX_BYTES) {
+            long pos = start;
+            while(pos < end) {
+                int len = (int)Math.min(BLOCK_SIZE, end - pos);
+                readFully(ch, pos, buf1, len);
+                for(int i = 0; i < len; i++) {
+                    if(buf1[i] == '\n') {
+                        region.nLines++;
+                    }
+                }
+                pos += len;
+            }
+            if(buf1[(int)((end - start - 1) % BLOCK_SIZE)] != '\n') {
+                region.nLines++;
+            }
+            return region;
+        }
+        int len = (int)(end - start);
+        byte[] bytes = new byte[len];
+        readFully(ch, start, bytes, len);
+        for(int i = 0; i < len; i++) {
+            if(bytes[i] == '\n') {
+                region.nLines++;
+            }
+        }
+        if(len > 0 && bytes[len - 1] != '\n') {
+            region.nLines++;
+        }
+        if(region.nLines > maxLines) {
+            return region;
+        }
+        List<String> lines = new ArrayList<String>(region.nLines);
+        int lineStart = 0;
+        for(int i = 0; i < len; i++) {
+            if(bytes[i] == '\n') {
+                lines.add(new String(bytes, lineStart, i + 1 - lineStart,
+                    CHARSET));
+                lineStart = i + 1;
+            }
+        }
+        if(lineStart < len) {
+            lines.add(new String(bytes, lineStart, len - lineStart, CHARSET));
+        }
+        region.lines = lines;
+        return region;
+    }
+
+    /**
+     * Compares two lists of lines and writes the hunks.
+     *
+     * @param lines1
+     * @param lines2
+     * @param firstLine The line number of the first line in both.
+     * @param out
+     * @throws IOException
+     */
+    private static void writeHunks(List<String> lines1, List<String> lines2,
+        int firstLine, Appendable out) throws IOException {
+        // Use numbers for the lines so they are only compared once
+        Map<String, Integer> ids = new HashMap<String, Integer>();
+        int[] a = getIds(lines1, ids);
+        int[] b = getIds(lines2, ids);
+        boolean[] deleted = new boolean[a.length];
+        boolean[] inserted = new boolean[b.length];
+        compare(a, 0, a.length, b, 0, b.length, deleted, inserted);
+
+        // Make the edit script, deletions first in each change
+        int nOps = 0;
+        byte[] ops = new byte[a.length + b.length];
+        int[] index1 = new int[ops.length + 1];
+        int[] index2 = new int[ops.length + 1];
+        int i = 0, j = 0;
+        while(i < a.length || j < b.length) {
+            index1[nOps] = i;
+            index2[nOps] = j;
+            if(i < a.length && deleted[i]) {
+                ops[nOps++] = DELETE;
+                i++;
+            } else if(j < b.length && inserted[j]) {
+                ops[nOps++] = INSERT;
+                j++;
+            } else {
+                ops[nOps++] = EQUAL;
+                i++;
+                j++;
+            }
+        }
+        index1[nOps] = i;
+        index2[nOps] = j;
+
+        // Group the changes into hunks with context
+        int k = 0;
+        while(k < nOps) {
+            while(k < nOps && ops[k] == EQUAL) {
+                k++;
+            }
+            if(k == nOps) {
+                break;
+            }
+            int hunkStart = Math.max(0, k - CONTEXT);
+            int hunkEnd;
+            while(true) {
+                while(k < nOps && ops[k] != EQUAL) {
+                    k++;
+                }
+                int next = k;
+                while(next < nOps && ops[next] == EQUAL
+                    && next - k <= 2 * CONTEXT) {
+                    next++;
+                }
+                if(next < nOps && ops[next] != EQUAL) {
+                    k = next;
+                } else {
+                    hunkEnd = Math.min(nOps, k + CONTEXT);
+                    break;
+                }
+            }
+            out.append("@@ -"
+                + range(firstLine + index1[hunkStart], index1[hunkEnd]
+                    - index1[hunkStart])
+                + " +"
+                + range(firstLine + index2[hunkStart], index2[hunkEnd]
+                    - index2[hunkStart]) + " @@" + LS);
+            for(int op = hunkStart; op < hunkEnd; op++) {
+                if(ops[op] == INSERT) {
+                    writeLine('+', lines2.get(index2[op]), out);
+                } else {
+                    writeLine(ops[op] == DELETE ? '-' : ' ',
+                        lines1.get(index1[op]), out);
+                }
+            }
+            k = hunkEnd;
+        }
+    }
+
+    /**
+     * Gets the ids for a list of lines, adding new ones to the map.
+     */
+    private static int[] getIds(List<String> lines, Map<String, Integer> ids) {
+        int[] result = new int[lines.size()];
+        for(int i = 0; i < result.length; i++) {
+            String line = lines.get(i);
+            Integer id = ids.get(line);
+            if(id == null) {
+                id = ids.size();
+                ids.put(line, id);
+            }
+            result[i] = id;
+        }
+        return result;
+    }
+
+    /**
+     * Writes one line of a hunk. The line includes its line end, if any.
+     */
+    private static void writeLine(char prefix, String line, Appendable out)
+        throws IOException {
+        out.append(prefix).append(line);
+        if(!line.endsWith("\n")) {
+            out.append(LS + "\\ No newline at end of file" + LS);
+        }
+    }
+
+    /**
+     * Formats a line range for a hunk header.
+     *
+     * @param start The first line.
+     * @param count The number of lines.
+     * @return
+     */
+    private static String range(int start, int count) {
+        if(count == 1) {
+            return Integer.toString(start);
+        }
+        // An empty range is given as the line before it
+        return (count == 0 ? start - 1 : start) + "," + count;
+    }
+
+    /**
+     * Marks the lines to delete from a and insert from b to change a[aLo,
+     * aHi) into b[bLo, bHi). Divides the problem at the middle of a shortest
+     * edit path, so the space used is linear.
+     */
+    private static void compare(int[] a, int aLo, int aHi, int[] b, int bLo,
+        int bHi, boolean[] deleted, boolean[] inserted) {
+        while(aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo++;
+            bLo++;
+        }
+        while(aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi--;
+            bHi--;
+        }
+        int[] split = null;
+        if(aLo < aHi && bLo < bHi) {
+            split = bisect(a, aLo, aHi, b, bLo, bHi);
+            if(split != null && split[0] == aLo && split[1] == bLo
+                || split != null && split[0] == aHi && split[1] == bHi) {
+                split = null;
+            }
+        }
+        if(split == null) {
+            // Nothing in common
+            for(int i = aLo; i < aHi; i++) {
+                deleted[i] = true;
+            }
+            for(int j = bLo; j < bHi; j++) {
+                inserted[j] = true;
+            }
+            return;
+        }
+        compare(a, aLo, split[0], b, bLo, split[1], deleted, inserted);
+        compare(a, split[0], aHi, b, split[1], bHi, deleted, inserted);
+    }
+
+    /**
+     * Finds a point on a shortest edit path by running the Myers algorithm
+     * from both ends until the paths meet.
+     *
+     * @return The indices in a and b of the point, or null if there are no
+     *         lines in common.
+     */
+    private static int[] bisect(int[] a, int aLo, int aHi, int[] b, int bLo,
+        int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int maxD = (n + m + 1) / 2;
+        int vOffset = maxD;
+        int vLength = 2 * maxD + 2;
+        int[] v1 = new int[vLength];
+        int[] v2 = new int[vLength];
+        Arrays.fill(v1, -1);
+        Arrays.fill(v2, -1);
+        v1[vOffset + 1] = 0;
+        v2[vOffset + 1] = 0;
+        int delta = n - m;
+        // If the difference is odd, the forward path finds the overlap
+        boolean front = delta % 2 != 0;
+        int k1Start = 0, k1End = 0, k2Start = 0, k2End = 0;
+        for(int d = 0; d < maxD; d++) {
+            for(int k1 = -d + k1Start; k1 <= d - k1End; k1 += 2) {
+                int k1Offset = vOffset + k1;
+                int x1;
+                if(k1 == -d
+                    || (k1 != d && v1[k1Offset - 1] < v1[k1Offset + 1])) {
+                    x1 = v1[k1Offset + 1];
+                } else {
+                    x1 = v1[k1Offset - 1] + 1;
+                }
+                int y1 = x1 - k1;
+                while(x1 < n && y1 < m && a[aLo + x1] == b[bLo + y1]) {
+                    x1++;
+                    y1++;
+                }
+                v1[k1Offset] = x1;
+                if(x1 > n) {
+                    k1End += 2;
+                } else if(y1 > m) {
+                    k1Start += 2;
+                } else if(front) {
+                    int k2Offset = vOffset + delta - k1;
+                    if(k2Offset >= 0 && k2Offset < vLength
+                        && v2[k2Offset] != -1) {
+                        if(x1 >= n - v2[k2Offset]) {
+                            return new int[] {aLo + x1, bLo + y1};
+                        }
+                    }
+                }
+            }
+            for(int k2 = -d + k2Start; k2 <= d - k2End; k2 += 2) {
+                int k2Offset = vOffset + k2;
+                int x2;
+                if(k2 == -d
+                    || (k2 != d && v2[k2Offset - 1] < v2[k2Offset + 1])) {
+                    x2 = v2[k2Offset + 1];
+                } else {
+                    x2 = v2[k2Offset - 1] + 1;
+                }
+                int y2 = x2 - k2;
+                while(x2 < n && y2 < m
+                    && a[aHi - x2 - 1] == b[bHi - y2 - 1]) {
+                    x2++;
+                    y2++;
+                }
+                v2[k2Offset] = x2;
+                if(x2 > n) {
+                    k2End += 2;
+                } else if(y2 > m) {
+                    k2Start += 2;
+                } else if(!front) {
+                    int k1Offset = vOffset + delta - k2;
+                    if(k1Offset >= 0 && k1Offset < vLength
+                        && v1[k1Offset] != -1) {
+                        int x1 = v1[k1Offset];
+                        int y1 = x1 - (delta - k2);
+                        if(x1 >= n - x2) {
+                            return new int[] {aLo + x1, bLo + y1};
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+}
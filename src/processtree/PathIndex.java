@@ -0,0 +1,571 @@
+package processtree;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * PathIndex
+ *
+ * @author Kenneth Evans, Jr.<br>
+ * <br>
+ *         This class holds the relative paths of everything in a directory
+ *         tree, so checking whether an item exists there does not need to go
+ *         to the file system. The tree is listed once, in parallel, with a task
+ *         for each directory. The paths are kept in a tree of names, so the
+ *         parent directories are only stored once.<br>
+ * <br>
+ *         Several trees, up to MAX_TOPS, can be merged into one index. Each
+ *         item records which of them hold it as a bit mask, with bit i for
+ *         the i'th tree.<br>
+ * <br>
+ *         On file systems that ignore case, as usual on Windows and macOS,
+ *         names that differ only in case are the same item, as they are for
+ *         File.exists(). If all the trees ignore case, the names are folded to
+ *         one case when they are stored and looked up. If only some of them do,
+ *         items not found in those are checked with the file system.<br>
+ * <br>
+ *         For very large trees, only a Bloom filter of the paths can be kept
+ *         instead. It uses about BITS_PER_ENTRY bits per item. The trees are
+ *         listed twice, once to count the items to size the filter, and once
+ *         to add them to it as they are found. Paths the filter says are not
+ *         there are not there, and the others are checked with the file
+ *         system.<br>
+ * <br>
+ *
+ */
+public class PathIndex
+{
+    /** Bits per item for the Bloom filter. */
+    public static final int BITS_PER_ENTRY = 10;
+    /** Number of hashes for the Bloom filter. */
+    public static final int N_HASHES = 7;
+    /** Maximum number of trees. */
+    public static final int MAX_TOPS = 64;
+
+    private List<File> tops;
+    private boolean useBloom;
+    /** Whether names are folded to one case. */
+    private boolean foldCase = false;
+    /** The trees that ignore case when names are not folded. */
+    private long insensitiveTops = 0;
+    /** The root of the tree of names, or null if using the Bloom filter. */
+    private Node root = null;
+    /** The bits of the Bloom filter, or null if not used or being sized. */
+    private AtomicLongArray bloom = null;
+    private long nBits = 0;
+    private long nItems = 0;
+    /** The number of items in each tree. */
+    private long[] nTopItems;
+    private AtomicLong nMaybe = new AtomicLong();
+    private AtomicLong nFalsePositives = new AtomicLong();
+
+    /**
+     * Node Internal class to hold an item in the tree of names.
+     */
+    static class Node
+    {
+        /** The items in this directory, or null for a file. */
+        HashMap<String, Node> children = null;
+        /** The trees that hold this item. */
+        long tops;
+
+        Node(long tops) {
+            this.tops = tops;
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param top The top of the tree.
+     * @param useBloom Whether to keep only a Bloom filter.
+     */
+    public PathIndex(File top, boolean useBloom) {
+        this(Collections.singletonList(top), useBloom);
+    }
+
+    /**
+     * Constructor for several trees.
+     *
+     * @param tops The tops of the trees.
+     * @param useBloom Whether to keep only a Bloom filter.
+     */
+    public PathIndex(List<File> tops, boolean useBloom) {
+        if(tops.isEmpty() || tops.size() > MAX_TOPS) {
+            throw new IllegalArgumentException("There must be 1 to "
+                + MAX_TOPS + " trees");
+        }
+        this.tops = new ArrayList<File>(tops);
+        this.useBloom = useBloom;
+        nTopItems = new long[tops.size()];
+    }
+
+    /**
+     * Lists the trees. They are all listed at the same time.
+     *
+     * @param nThreads The number of threads to use.
+     */
+    public void load(int nThreads) {
+        long insensitive = 0;
+        for(int i = 0; i < tops.size(); i++) {
+            if(isCaseInsensitive(tops.get(i))) {
+                insensitive |= 1L << i;
+            }
+        }
+        foldCase = insensitive == allTops();
+        insensitiveTops = foldCase ? 0 : insensitive;
+        ForkJoinPool pool = new ForkJoinPool(nThreads);
+        try {
+            List<IndexTask> tasks = listTops(pool);
+            if(!useBloom) {
+                root = tasks.get(0).node;
+                for(int i = 1; i < tasks.size(); i++) {
+                    merge(root, tasks.get(i).node);
+                }
+                nItems = countNodes(root);
+                return;
+            }
+            // The first listing only counted the items
+            for(int i = 0; i < tasks.size(); i++) {
+                nTopItems[i] = tasks.get(i).count;
+                nItems += nTopItems[i];
+            }
+            nBits = Math.max(64, nItems * BITS_PER_ENTRY);
+            bloom = new AtomicLongArray((int)((nBits + 63) / 64));
+            nBits = 64L * bloom.length();
+            listTops(pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Lists all the trees at the same time.
+     *
+     * @param pool
+     * @return The tasks for the tops.
+     */
+    private List<IndexTask> listTops(ForkJoinPool pool) {
+        final List<IndexTask> tasks = new ArrayList<IndexTask>();
+        for(int i = 0; i < tops.size(); i++) {
+            tasks.add(new IndexTask(tops.get(i), "", 1L << i));
+        }
+        pool.invoke(new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
+
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+        return tasks;
+    }
+
+    /**
+     * IndexTask Task to list a directory. Forks a task for each subdirectory.
+     * With the Bloom filter, it only counts the items until the filter has
+     * been sized, and then adds them to it.
+     *
+     * @author Kenneth Evans, Jr.
+     */
+    class IndexTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+        private File dir;
+        /** The path relative to the top, using / as the separator. */
+        private String path;
+        /** The bit for the tree. */
+        private long top;
+        /** The node for the directory, or null if using the Bloom filter. */
+        Node node = null;
+        /** The number of items below it when counting. */
+        long count = 0;
+
+        IndexTask(File dir, String path, long top) {
+            this.dir = dir;
+            this.path = path;
+            this.top = top;
+            if(!useBloom) {
+                node = new Node(top);
+            }
+        }
+
+        protected void compute() {
+            List<IndexTask> subtasks = new ArrayList<IndexTask>();
+            if(!useBloom) {
+                node.children = new HashMap<String, Node>();
+            }
+            DirectoryLister lister = null;
+            try {
+                lister = new DirectoryLister(dir, DirectoryLister.Order.NONE);
+                for(File file1 : lister) {
+                    String name = foldCase ? fold(file1.getName()) : file1
+                        .getName();
+                    String path1 = path.length() == 0 ? name : path + "/"
+                        + name;
+                    if(useBloom) {
+                        if(bloom == null) {
+                            count++;
+                        } else {
+                            addHash(hash(path1));
+                        }
+                    }
+                    if(file1.isDirectory()) {
+                        IndexTask task = new IndexTask(file1, path1, top);
+                        subtasks.add(task);
+                        if(!useBloom) {
+                            node.children.put(name, task.node);
+                        }
+                    } else if(!useBloom) {
+                        node.children.put(name, new Node(top));
+                    }
+                }
+            } catch(IOException ex) {
+                System.out.println("Error listing " + dir.getPath() + ": "
+                    + ex.getMessage());
+            } finally {
+                if(lister != null) {
+                    lister.close();
+                }
+            }
+            invokeAll(subtasks);
+            for(IndexTask task : subtasks) {
+                count += task.count;
+            }
+        }
+    }
+
+    /**
+     * Merges a tree of names from another tree into one.
+     *
+     * @param node
+     * @param other
+     */
+    private static void merge(Node node, Node other) {
+        node.tops |= other.tops;
+        if(other.children == null) {
+            return;
+        }
+        if(node.children == null) {
+            // A file in one tree and a directory in the other
+            node.children = other.children;
+            return;
+        }
+        for(Map.Entry<String, Node> entry : other.children.entrySet()) {
+            Node child = node.children.get(entry.getKey());
+            if(child == null) {
+                node.children.put(entry.getKey(), entry.getValue());
+            } else {
+                merge(child, entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Counts the items below a node, in total and for each tree.
+     */
+    private long countNodes(Node node) {
+        long count = node.children.size();
+        for(Node child : node.children.values()) {
+            for(long bits = child.tops; bits != 0; bits &= bits - 1) {
+                nTopItems[Long.numberOfTrailingZeros(bits)]++;
+            }
+            if(child.children != null) {
+                count += countNodes(child);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Determines if an item exists in any of the trees.
+     *
+     * @param relativePath The path relative to the tops. Leading separators
+     *            are ignored.
+     * @return
+     */
+    public boolean contains(String relativePath) {
+        return getTops(relativePath) != 0;
+    }
+
+    /**
+     * Determines which trees an item exists in.
+     *
+     * @param relativePath The path relative to the tops. Leading separators
+     *            are ignored.
+     * @return A bit mask with bit i set if it is in the i'th tree.
+     */
+    public long getTops(String relativePath) {
+        String path = normalize(relativePath);
+        if(path.length() == 0) {
+            return allTops();
+        }
+        if(foldCase) {
+            path = fold(path);
+        }
+        if(!useBloom) {
+            Node node = find(path);
+            long found = node == null ? 0 : node.tops;
+            return found | checkInsensitive(relativePath, found);
+        }
+        if(!mightContain(hash(path))) {
+            return checkInsensitive(relativePath, 0);
+        }
+        nMaybe.incrementAndGet();
+        long found = 0;
+        for(int i = 0; i < tops.size(); i++) {
+            if(new File(tops.get(i), relativePath).exists()) {
+                found |= 1L << i;
+            }
+        }
+        if(found == 0) {
+            nFalsePositives.incrementAndGet();
+        }
+        return found;
+    }
+
+    /**
+     * Checks the trees that ignore case but were not found in the index with
+     * the file system, as the item may be there with a different case.
+     *
+     * @param relativePath
+     * @param found The trees it was found in.
+     * @return The trees it was found in by the check.
+     */
+    private long checkInsensitive(String relativePath, long found) {
+        long found1 = 0;
+        for(long bits = insensitiveTops & ~found; bits != 0; bits &= bits - 1) {
+            int i = Long.numberOfTrailingZeros(bits);
+            if(new File(tops.get(i), relativePath).exists()) {
+                found1 |= 1L << i;
+            }
+        }
+        return found1;
+    }
+
+    /**
+     * Determines if the file system a directory is on ignores case, by
+     * looking for its name, or the name of a parent or of an item in it, with
+     * the case changed.
+     *
+     * @param dir
+     * @return
+     */
+    static boolean isCaseInsensitive(File dir) {
+        try {
+            Path path = dir.toPath().toAbsolutePath();
+            for(Path p = path; p != null && p.getFileName() != null; p = p
+                .getParent()) {
+                Boolean result = isSameWithCaseSwapped(p);
+                if(result != null) {
+                    return result;
+                }
+            }
+            DirectoryLister lister = new DirectoryLister(dir,
+                DirectoryLister.Order.NONE);
+            try {
+                for(File file1 : lister) {
+                    Boolean result = isSameWithCaseSwapped(file1.toPath());
+                    if(result != null) {
+                        return result;
+                    }
+                }
+            } finally {
+                lister.close();
+            }
+        } catch(IOException ex) {
+            // Assume it does not
+        }
+        return false;
+    }
+
+    /**
+     * Determines if a path with the case of its name swapped is the same item.
+     *
+     * @param path
+     * @return The result, or null if the name has no letters with case.
+     * @throws IOException
+     */
+    private static Boolean isSameWithCaseSwapped(Path path) throws IOException {
+        String name = path.getFileName().toString();
+        StringBuilder swapped = new StringBuilder(name.length());
+        for(int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            swapped.append(Character.isUpperCase(c) ? Character.toLowerCase(c)
+                : Character.toUpperCase(c));
+        }
+        if(swapped.toString().equals(name)) {
+            return null;
+        }
+        Path other = path.resolveSibling(swapped.toString());
+        return Files.exists(other) && Files.isSameFile(path, other);
+    }
+
+    /**
+     * Folds a name to one case, a character at a time.
+     */
+    private static String fold(String name) {
+        StringBuilder folded = null;
+        for(int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            char c1 = Character.toUpperCase(c);
+            if(c1 != c && folded == null) {
+                folded = new StringBuilder(name);
+            }
+            if(folded != null) {
+                folded.setCharAt(i, c1);
+            }
+        }
+        return folded == null ? name : folded.toString();
+    }
+
+    /**
+     * @return A bit mask with the bits for all the trees set.
+     */
+    private long allTops() {
+        return tops.size() == MAX_TOPS ? -1L : (1L << tops.size()) - 1;
+    }
+
+    /**
+     * Finds the node for a path in the tree of names.
+     *
+     * @param path A normalized path.
+     * @return The node or null if not found.
+     */
+    private Node find(String path) {
+        Node node = root;
+        int start = 0;
+        while(start < path.length()) {
+            if(node.children == null) {
+                return null;
+            }
+            int end = path.indexOf('/', start);
+            if(end < 0) {
+                end = path.length();
+            }
+            node = node.children.get(path.substring(start, end));
+            if(node == null) {
+                return null;
+            }
+            start = end + 1;
+        }
+        return node;
+    }
+
+    /**
+     * Converts a relative path to use / and not start with a separator.
+     */
+    private static String normalize(String relativePath) {
+        String path = relativePath;
+        if(File.separatorChar != '/') {
+            path = path.replace(File.separatorChar, '/');
+        }
+        int start = 0;
+        while(start < path.length() && path.charAt(start) == '/') {
+            start++;
+        }
+        return path.substring(start);
+    }
+
+    /**
+     * Computes a 64-bit hash of a path.
+     */
+    private static long hash(String path) {
+        long h = 0xcbf29ce484222325L;
+        for(int i = 0; i < path.length(); i++) {
+            h ^= path.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /**
+     * Gets the second hash used for the Bloom filter.
+     */
+    private static long hash2(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h | 1;
+    }
+
+    /**
+     * Adds a hash to the Bloom filter. May be called from several threads.
+     */
+    private void addHash(long h) {
+        long h2 = hash2(h);
+        for(int i = 0; i < N_HASHES; i++) {
+            long bit = Math.floorMod(h + i * h2, nBits);
+            int index = (int)(bit >>> 6);
+            long mask = 1L << bit;
+            long old = bloom.get(index);
+            while((old & mask) == 0
+                && !bloom.compareAndSet(index, old, old | mask)) {
+                old = bloom.get(index);
+            }
+        }
+    }
+
+    /**
+     * Checks a hash against the Bloom filter.
+     */
+    private boolean mightContain(long h) {
+        long h2 = hash2(h);
+        for(int i = 0; i < N_HASHES; i++) {
+            long bit = Math.floorMod(h + i * h2, nBits);
+            if((bloom.get((int)(bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of items in the trees, not counting the tops. Items
+     *         in more than one tree are counted once, except when using the
+     *         Bloom filter.
+     */
+    public long getItemCount() {
+        return nItems;
+    }
+
+    /**
+     * @param i
+     * @return The number of items in the i'th tree, not counting the top.
+     */
+    public long getItemCount(int i) {
+        return nTopItems[i];
+    }
+
+    /**
+     * @return The number of trees.
+     */
+    public int getTopCount() {
+        return tops.size();
+    }
+
+    /**
+     * @return The number of lookups the Bloom filter could not rule out.
+     */
+    public long getMaybeCount() {
+        return nMaybe.get();
+    }
+
+    /**
+     * @return The number of those that were not found.
+     */
+    public long getFalsePositiveCount() {
+        return nFalsePositives.get();
+    }
+
+}
@@ -0,0 +1,273 @@
+package processtree;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * PatternReplacer
+ *
+ * @author Kenneth Evans, Jr.<br>
+ * <br>
+ *         This class finds and replaces any number of literal strings in the
+ *         bytes of a file in one pass. The strings are compiled into an
+ *         Aho-Corasick automaton with a full transition table, so each byte is
+ *         looked at once no matter how many strings there are.<br>
+ * <br>
+ *         Matches are replaced leftmost first, and the longest string wins if
+ *         several start at the same place. Replaced text is not scanned again.
+ *         The strings are converted to bytes with the default character set,
+ *         as the files are read with it.<br>
+ * <br>
+ *
+ */
+public class PatternReplacer
+{
+    private byte[][] patterns;
+    private byte[][] replacements;
+    /** The next state for each state and byte. */
+    private int[][] next;
+    /** The longest pattern that ends at each state or -1. */
+    private int[] output;
+    /** The next state down the failure links that has an output or -1. */
+    private int[] outputLink;
+
+    /**
+     * Constructor.
+     *
+     * @param from The strings to find.
+     * @param to The strings to replace them with.
+     */
+    public PatternReplacer(String[] from, String[] to) {
+        if(from.length != to.length) {
+            throw new IllegalArgumentException(
+                "There must be one replacement for each string");
+        }
+        patterns = new byte[from.length][];
+        replacements = new byte[to.length][];
+        for(int i = 0; i < from.length; i++) {
+            if(from[i].length() == 0) {
+                throw new IllegalArgumentException("Empty string to find");
+            }
+            patterns[i] = from[i].getBytes();
+            replacements[i] = to[i].getBytes();
+        }
+        build();
+    }
+
+    /**
+     * Builds the automaton.
+     */
+    private void build() {
+        // The trie
+        List<int[]> states = new ArrayList<int[]>();
+        List<Integer> outputs = new ArrayList<Integer>();
+        states.add(newState());
+        outputs.add(-1);
+        for(int i = 0; i < patterns.length; i++) {
+            int state = 0;
+            for(byte b : patterns[i]) {
+                int c = b & 0xFF;
+                if(states.get(state)[c] < 0) {
+                    states.get(state)[c] = states.size();
+                    states.add(newState());
+                    outputs.add(-1);
+                }
+                state = states.get(state)[c];
+            }
+            int old = outputs.get(state);
+            if(old < 0 || patterns[i].length > patterns[old].length) {
+                outputs.set(state, i);
+            }
+        }
+        int nStates = states.size();
+        next = states.toArray(new int[nStates][]);
+        output = new int[nStates];
+        for(int i = 0; i < nStates; i++) {
+            output[i] = outputs.get(i);
+        }
+        // The failure links, breadth first, filling in the missing
+        // transitions
+        int[] fail = new int[nStates];
+        outputLink = new int[nStates];
+        outputLink[0] = -1;
+        int[] queue = new int[nStates];
+        int head = 0;
+        int tail = 0;
+        for(int c = 0; c < 256; c++) {
+            int child = next[0][c];
+            if(child < 0) {
+                next[0][c] = 0;
+            } else {
+                fail[child] = 0;
+                outputLink[child] = -1;
+                queue[tail++] = child;
+            }
+        }
+        while(head < tail) {
+            int state = queue[head++];
+            for(int c = 0; c < 256; c++) {
+                int child = next[state][c];
+                if(child < 0) {
+                    next[state][c] = next[fail[state]][c];
+                } else {
+                    int f = next[fail[state]][c];
+                    fail[child] = f;
+                    outputLink[child] = output[f] >= 0 ? f : outputLink[f];
+                    queue[tail++] = child;
+                }
+            }
+        }
+    }
+
+    private static int[] newState() {
+        int[] state = new int[256];
+        Arrays.fill(state, -1);
+        return state;
+    }
+
+    /**
+     * Determines if any of the strings are in the remaining bytes of a
+     * buffer. The position of the buffer is not changed.
+     *
+     * @param buf
+     * @return
+     */
+    public boolean contains(ByteBuffer buf) {
+        int state = 0;
+        for(int i = buf.position(); i < buf.limit(); i++) {
+            state = next[state][buf.get(i) & 0xFF];
+            if(output[state] >= 0 || outputLink[state] >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the matches to replace in the remaining bytes of a buffer. The
+     * position of the buffer is not changed.
+     *
+     * @param buf
+     * @return The matches as pairs of the offset from the position and the
+     *         index of the string, in order and not overlapping. The array is
+     *         empty if there are none.
+     */
+    public int[] findMatches(ByteBuffer buf) {
+        int start = buf.position();
+        // All the matches as start and pattern, by where they end
+        int[] found = new int[0];
+        int nFound = 0;
+        int state = 0;
+        for(int i = start; i < buf.limit(); i++) {
+            state = next[state][buf.get(i) & 0xFF];
+            int s = output[state] >= 0 ? state : outputLink[state];
+            for(; s >= 0; s = outputLink[s]) {
+                if(2 * nFound + 2 > found.length) {
+                    found = Arrays.copyOf(found, Math.max(16,
+                        2 * found.length));
+                }
+                int pattern = output[s];
+                found[2 * nFound] = i - start + 1 - patterns[pattern].length;
+                found[2 * nFound + 1] = pattern;
+                nFound++;
+            }
+        }
+        if(nFound == 0) {
+            return found;
+        }
+        // Sort by start and then longest first
+        Integer[] order = new Integer[nFound];
+        for(int i = 0; i < nFound; i++) {
+            order[i] = i;
+        }
+        final int[] found1 = found;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                int diff = found1[2 * a] - found1[2 * b];
+                if(diff != 0) {
+                    return diff;
+                }
+                return patterns[found1[2 * b + 1]].length
+                    - patterns[found1[2 * a + 1]].length;
+            }
+        });
+        // Keep the ones that do not overlap one already kept
+        int[] matches = new int[2 * nFound];
+        int nMatches = 0;
+        int end = 0;
+        for(int i = 0; i < nFound; i++) {
+            int matchStart = found[2 * order[i]];
+            int pattern = found[2 * order[i] + 1];
+            if(matchStart < end) {
+                continue;
+            }
+            matches[2 * nMatches] = matchStart;
+            matches[2 * nMatches + 1] = pattern;
+            nMatches++;
+            end = matchStart + patterns[pattern].length;
+        }
+        return Arrays.copyOf(matches, 2 * nMatches);
+    }
+
+    /**
+     * Replaces the strings in an array of bytes.
+     *
+     * @param bytes
+     * @return The new bytes, or the same array if nothing was replaced.
+     */
+    public byte[] replace(byte[] bytes) {
+        return replace(bytes, findMatches(ByteBuffer.wrap(bytes)));
+    }
+
+    /**
+     * Replaces matches that have already been found in an array of bytes.
+     *
+     * @param bytes
+     * @param matches The matches from findMatches.
+     * @return The new bytes, or the same array if there are no matches.
+     */
+    public byte[] replace(byte[] bytes, int[] matches) {
+        if(matches.length == 0) {
+            return bytes;
+        }
+        int len = bytes.length;
+        for(int i = 0; i < matches.length; i += 2) {
+            len += replacements[matches[i + 1]].length
+                - patterns[matches[i + 1]].length;
+        }
+        byte[] result = new byte[len];
+        int from = 0;
+        int to = 0;
+        for(int i = 0; i < matches.length; i += 2) {
+            int n = matches[i] - from;
+            System.arraycopy(bytes, from, result, to, n);
+            to += n;
+            byte[] replacement = replacements[matches[i + 1]];
+            System.arraycopy(replacement, 0, result, to, replacement.length);
+            to += replacement.length;
+            from = matches[i] + patterns[matches[i + 1]].length;
+        }
+        System.arraycopy(bytes, from, result, to, bytes.length - from);
+        return result;
+    }
+
+    /**
+     * @param i
+     * @return The length in bytes of the i'th string to find.
+     */
+    public int getPatternLength(int i) {
+        return patterns[i].length;
+    }
+
+    /**
+     * @param i
+     * @return The bytes to replace the i'th string with.
+     */
+    public byte[] getReplacement(int i) {
+        return replacements[i];
+    }
+
+}
@@ -6,14 +6,32 @@
 
 package processtree;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.Map;
+import java.util.TimeZone;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * PrintDirLastMod processes the list of directories on the command line and
@@ -21,6 +39,23 @@ import java.util.TreeSet;
  * directories. It does not check modification times for directories. This can
  * be uses to check for directories that have not been modified recently.
  * 
+ * The directories are walked in parallel. If a threshold date is given, the
+ * walk of a top-level directory stops as soon as a file modified after the
+ * threshold is found, and that directory is just reported as modified.
+ * 
+ * With a stale cutoff, it instead reports every subtree, at any depth, with no
+ * files modified after the cutoff, along with its size. Only the topmost such
+ * subtrees are reported. The directory modification times and the file
+ * statistics for each directory can be saved in a cache file. On the next run
+ * a directory whose modification time has not changed is not listed again and
+ * its files are not checked, so only one stat per directory is needed. Files
+ * that are modified in place, rather than replaced, do not change the
+ * directory modification time and are missed in this case.
+ * 
+ * With an activity unit, it also counts the files last modified in each day,
+ * week, or month for each top-level directory during the same walk and prints
+ * the counts as a heatmap, optionally also as CSV.
+ * 
  * @author Kenneth Evans, Jr.
  */
 public class PrintDirLastMod extends ProcessTree
@@ -31,6 +66,44 @@ public class PrintDirLastMod extends ProcessTree
     private long start, prev, cur;
     private int rootAbsLength = 0;
     private int rootCanonicalLength = 0;
+    /** Only report whether there are changes after this time. 0 for none. */
+    private long threshold = 0;
+    /** Number of threads to use. */
+    private int nThreads = Runtime.getRuntime().availableProcessors();
+    /** The pool used to walk the directories. */
+    private ForkJoinPool pool = null;
+    /** Report subtrees not modified since this time. 0 for none. */
+    private long staleCutoff = 0;
+    /** The cache file for directory statistics, or null for none. */
+    private String cacheFileName = null;
+    /** The directory statistics from the previous run. */
+    private Map<String, DirEntry> prevCache = new HashMap<String, DirEntry>();
+    /** The directory statistics from this run. */
+    private Map<String, DirEntry> newCache = new ConcurrentHashMap<String, DirEntry>();
+    /** The stale subtrees found. */
+    private ConcurrentLinkedQueue<Summary> staleResults = new ConcurrentLinkedQueue<Summary>();
+    /** Number of directories listed. */
+    private AtomicLong nDirsListed = new AtomicLong();
+    /** Number of directories taken from the cache. */
+    private AtomicLong nDirsCached = new AtomicLong();
+
+    public static enum Unit {
+        NONE, DAY, WEEK, MONTH,
+    };
+
+    /** The time unit for the activity histograms. */
+    private Unit activityUnit = Unit.NONE;
+    /** The CSV file for the activity histograms, or null for none. */
+    private String csvFileName = null;
+    /** Whether the CSV file has been started. */
+    private boolean csvStarted = false;
+    /** Offset of the local time zone [milliseconds]. */
+    private static final long TZ_OFFSET = TimeZone.getDefault().getOffset(
+        System.currentTimeMillis());
+    /** Characters used for the heatmap, from none to most. */
+    private static final String HEAT_CHARS = " .:-=+*#%@";
+    /** The activity histograms for the top-level directories. */
+    private Map<String, Activity> activityTable = new LinkedHashMap<String, Activity>();
 
     /**
      * Data Internal class to hold a File and the lastMod
@@ -98,6 +171,8 @@ public class PrintDirLastMod extends ProcessTree
         printResults();
         System.out.println();
         results = new TreeSet<Data>();
+        staleResults = new ConcurrentLinkedQueue<Summary>();
+        activityTable = new LinkedHashMap<String, Activity>();
     }
 
     /*
@@ -107,6 +182,7 @@ public class PrintDirLastMod extends ProcessTree
      */
     public void processEnd(Object obj) {
         printResults();
+        saveCache();
     }
 
     /*
@@ -134,10 +210,13 @@ public class PrintDirLastMod extends ProcessTree
                     rootCanonicalLength = 0;
                 }
             }
+            if(level == 1 && staleCutoff > 0) {
+                findStale(item);
+                return; // Will do finally first
+            }
             if(level > 2) return; // Will do finally first
             if(item.isDirectory()) {
                 long lastMod = 0;
-                File directoryList[] = item.listFiles();
                 if(level == 2) {
                     if(showProgress) {
                         prev = System.currentTimeMillis();
@@ -174,12 +253,14 @@ public class PrintDirLastMod extends ProcessTree
                     Data data = new Data(item, lastMod);
                     results.add(data);
                 }
-                // Convert it to a list so we can sort it
-                List<File> list = Arrays.asList(directoryList);
-                ListIterator<File> iter = list.listIterator();
-                while(iter.hasNext()) {
-                    File file1 = (File)iter.next();
-                    process((Object)file1);
+                DirectoryLister lister = new DirectoryLister(item,
+                    DirectoryLister.Order.NONE);
+                try {
+                    for(File file1 : lister) {
+                        process((Object)file1);
+                    }
+                } finally {
+                    lister.close();
                 }
             } else {
                 return;
@@ -192,43 +273,587 @@ public class PrintDirLastMod extends ProcessTree
     }
 
     /**
-     * Recurse to get the lastMod of all files in the directory
+     * Get the lastMod of all files in the directory using the pool. If there is
+     * a threshold, stops as soon as a file newer than the threshold is found,
+     * in which case the returned value is that file's lastMod and not
+     * necessarily the maximum.
      * 
      * @param dir
      * @return
      */
     protected long getDirLastMod(File dir, long prevLastMod) {
-        long lastMod = prevLastMod;
         if(!dir.isDirectory()) {
             System.out.println("Is not a directory: " + dir.getPath());
             return prevLastMod;
         }
-        File directoryList[] = dir.listFiles();
-        List<File> list = Arrays.asList(directoryList);
-        ListIterator<File> iter = list.listIterator();
-        long lastMod1;
-        while(iter.hasNext()) {
-            File file1 = (File)iter.next();
-            if(isSymbolicLink(file1)) {
-                System.out.println("Is symbolic link: " + dir.getPath());
-                return prevLastMod;
+        if(pool == null) {
+            pool = new ForkJoinPool(nThreads);
+        }
+        LastModTask task = new LastModTask(dir, new AtomicBoolean());
+        long lastMod = pool.invoke(task);
+        if(task.activity != null) {
+            activityTable.put(dir.getName(), task.activity);
+        }
+        return (lastMod > prevLastMod) ? lastMod : prevLastMod;
+    }
+
+    /**
+     * LastModTask Task to find the lastMod of the files in a directory. Forks a
+     * task for each subdirectory.
+     * 
+     * @author Kenneth Evans, Jr.
+     */
+    class LastModTask extends RecursiveTask<Long>
+    {
+        private static final long serialVersionUID = 1L;
+        private File dir;
+        /** Set when a file newer than the threshold has been found. */
+        private AtomicBoolean found;
+        /** The activity for this subtree, or null if not wanted. */
+        Activity activity = null;
+
+        LastModTask(File dir, AtomicBoolean found) {
+            this.dir = dir;
+            this.found = found;
+        }
+
+        protected Long compute() {
+            if(found.get()) return 0L;
+            DirectoryLister lister = null;
+            try {
+                lister = new DirectoryLister(dir, DirectoryLister.Order.NONE);
+            } catch(IOException ex) {
+                return 0L;
+            }
+            if(activityUnit != Unit.NONE) {
+                activity = new Activity();
+            }
+            long lastMod = 0;
+            List<LastModTask> tasks = new ArrayList<LastModTask>();
+            try {
+                for(File file1 : lister) {
+                    if(isSymbolicLink(file1)) {
+                        System.out.println("Is symbolic link: "
+                            + dir.getPath());
+                        // Drop the files counted so far so it is not merged
+                        activity = null;
+                        return 0L;
+                    }
+                    if(file1.isDirectory()) {
+                        tasks.add(new LastModTask(file1, found));
+                    } else {
+                        long lastMod1 = file1.lastModified();
+                        if(lastMod1 > lastMod) {
+                            lastMod = lastMod1;
+                        }
+                        if(activity != null && lastMod1 > 0) {
+                            activity.add(getBucket(lastMod1));
+                        }
+                        if(threshold > 0 && lastMod > threshold) {
+                            found.set(true);
+                            return lastMod;
+                        }
+                    }
+                }
+            } finally {
+                lister.close();
+            }
+            for(LastModTask task : invokeAll(tasks)) {
+                long lastMod1 = task.join();
+                if(lastMod1 > lastMod) {
+                    lastMod = lastMod1;
+                }
+                if(activity != null && task.activity != null) {
+                    activity.add(task.activity);
+                    task.activity = null;
+                }
+            }
+            return lastMod;
+        }
+    }
+
+    /**
+     * Activity Internal class to hold the number of files last modified in
+     * each bucket. The buckets are consecutive, starting at first, and the
+     * array grows as needed.
+     * 
+     * @author Kenneth Evans, Jr.
+     */
+    static class Activity
+    {
+        /** The bucket for counts[0]. */
+        long first = 0;
+        int[] counts = null;
+
+        /**
+         * Adds one to the count for the given bucket.
+         * 
+         * @param bucket
+         */
+        void add(long bucket) {
+            ensure(bucket, bucket);
+            counts[(int)(bucket - first)]++;
+        }
+
+        /**
+         * Adds the counts from another Activity.
+         * 
+         * @param other
+         */
+        void add(Activity other) {
+            if(other.counts == null) return;
+            ensure(other.first, other.last());
+            int offset = (int)(other.first - first);
+            for(int i = 0; i < other.counts.length; i++) {
+                counts[offset + i] += other.counts[i];
             }
-            if(file1.isDirectory()) {
-                lastMod1 = getDirLastMod(file1, lastMod);
+        }
+
+        /**
+         * @return The last bucket or first - 1 if there are none.
+         */
+        long last() {
+            return counts == null ? first - 1 : first + counts.length - 1;
+        }
+
+        /**
+         * @param bucket
+         * @return The count for the given bucket.
+         */
+        int get(long bucket) {
+            if(counts == null || bucket < first || bucket > last()) return 0;
+            return counts[(int)(bucket - first)];
+        }
+
+        /**
+         * Grows the array so it includes the given buckets.
+         */
+        private void ensure(long low, long high) {
+            if(counts == null) {
+                first = low;
+                counts = new int[(int)(high - low + 1)];
+                return;
+            }
+            long newFirst = Math.min(first, low);
+            long newLast = Math.max(last(), high);
+            if(newFirst == first && newLast == last()) return;
+            int[] newCounts = new int[(int)(newLast - newFirst + 1)];
+            System.arraycopy(counts, 0, newCounts, (int)(first - newFirst),
+                counts.length);
+            first = newFirst;
+            counts = newCounts;
+        }
+    }
+
+    /**
+     * Gets the activity bucket for a time.
+     * 
+     * @param time [milliseconds]
+     * @return The bucket in units of activityUnit since the epoch.
+     */
+    private long getBucket(long time) {
+        long day = Math.floorDiv(time + TZ_OFFSET, 86400000L);
+        switch(activityUnit) {
+        case WEEK:
+            // Day 0 was a Thursday, start weeks on Monday
+            return Math.floorDiv(day + 3, 7);
+        case MONTH:
+            LocalDate date = LocalDate.ofEpochDay(day);
+            return date.getYear() * 12L + date.getMonthValue() - 1;
+        default:
+            return day;
+        }
+    }
+
+    /**
+     * Gets the label for an activity bucket.
+     * 
+     * @param bucket
+     * @return
+     */
+    private String getBucketLabel(long bucket) {
+        switch(activityUnit) {
+        case WEEK:
+            return LocalDate.ofEpochDay(bucket * 7 - 3).toString();
+        case MONTH:
+            return String.format("%04d-%02d", Math.floorDiv(bucket, 12),
+                Math.floorMod(bucket, 12) + 1);
+        default:
+            return LocalDate.ofEpochDay(bucket).toString();
+        }
+    }
+
+    /**
+     * Prints the activity histograms as a heatmap with one row per top-level
+     * directory, most recently active first, and writes them to the CSV file
+     * if there is one.
+     */
+    public void printActivity() {
+        if(activityTable.isEmpty()) return;
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        int max = 0;
+        List<Map.Entry<String, Activity>> rows = new ArrayList<Map.Entry<String, Activity>>();
+        for(Map.Entry<String, Activity> entry : activityTable.entrySet()) {
+            Activity activity = entry.getValue();
+            if(activity.counts == null) continue;
+            rows.add(entry);
+            first = Math.min(first, activity.first);
+            last = Math.max(last, activity.last());
+            for(int count : activity.counts) {
+                max = Math.max(max, count);
+            }
+        }
+        if(rows.isEmpty()) return;
+        Collections.sort(rows, new Comparator<Map.Entry<String, Activity>>() {
+            public int compare(Map.Entry<String, Activity> ea,
+                Map.Entry<String, Activity> eb) {
+                return Long.compare(eb.getValue().last(), ea.getValue().last());
+            }
+        });
+
+        String unit = activityUnit.toString().toLowerCase();
+        System.out.println();
+        System.out.printf("Activity per %s from %s to %s (max %d files)\n",
+            unit, getBucketLabel(first), getBucketLabel(last), max);
+        System.out.printf("  Scale: \"%s\" from none to most (log)\n",
+            HEAT_CHARS);
+        int nLevels = HEAT_CHARS.length() - 1;
+        double logMax = Math.log(Math.max(max, 2));
+        StringBuilder sb = new StringBuilder();
+        for(Map.Entry<String, Activity> entry : rows) {
+            Activity activity = entry.getValue();
+            sb.setLength(0);
+            for(long bucket = first; bucket <= last; bucket++) {
+                int count = activity.get(bucket);
+                int index = 0;
+                if(count > 0) {
+                    index = 1 + (int)((nLevels - 1) * Math.log(count)
+                        / logMax);
+                }
+                sb.append(HEAT_CHARS.charAt(index));
+            }
+            System.out.printf("  %-40s |%s| %s\n", entry.getKey(), sb,
+                getBucketLabel(activity.last()));
+        }
+
+        if(csvFileName != null) {
+            writeActivityCsv(rows, first, last);
+        }
+    }
+
+    /**
+     * Writes the activity histograms as CSV. The first run creates the file
+     * and later ones append to it.
+     */
+    private void writeActivityCsv(List<Map.Entry<String, Activity>> rows,
+        long first, long last) {
+        PrintWriter out = null;
+        try {
+            out = new PrintWriter(new BufferedWriter(new FileWriter(
+                csvFileName, csvStarted)));
+            csvStarted = true;
+            StringBuilder sb = new StringBuilder("directory");
+            for(long bucket = first; bucket <= last; bucket++) {
+                sb.append(',').append(getBucketLabel(bucket));
+            }
+            out.println(sb);
+            for(Map.Entry<String, Activity> entry : rows) {
+                Activity activity = entry.getValue();
+                sb.setLength(0);
+                sb.append('"').append(entry.getKey().replace("\"", "\"\""))
+                    .append('"');
+                for(long bucket = first; bucket <= last; bucket++) {
+                    sb.append(',').append(activity.get(bucket));
+                }
+                out.println(sb);
+            }
+        } catch(IOException ex) {
+            System.out.println("Could not write " + csvFileName + ": "
+                + ex.getMessage());
+        } finally {
+            if(out != null) out.close();
+        }
+    }
+
+    /**
+     * Finds the topmost subtrees of the given directory that have no files
+     * modified after staleCutoff.
+     * 
+     * @param dir
+     */
+    protected void findStale(File dir) {
+        if(pool == null) {
+            pool = new ForkJoinPool(nThreads);
+        }
+        Summary summary = pool.invoke(new StaleTask(dir));
+        if(summary != null && summary.isStale()) {
+            staleResults.add(summary);
+        }
+    }
+
+    /**
+     * DirEntry Internal class to hold the statistics for the files directly in
+     * a directory and the names of its subdirectories.
+     * 
+     * @author Kenneth Evans, Jr.
+     */
+    static class DirEntry
+    {
+        long dirMod;
+        long lastMod;
+        long size;
+        long nFiles;
+        String[] subdirs;
+
+        DirEntry(long dirMod, long lastMod, long size, long nFiles,
+            String[] subdirs) {
+            this.dirMod = dirMod;
+            this.lastMod = lastMod;
+            this.size = size;
+            this.nFiles = nFiles;
+            this.subdirs = subdirs;
+        }
+    }
+
+    /**
+     * Summary Internal class to hold the statistics for a subtree.
+     * 
+     * @author Kenneth Evans, Jr.
+     */
+    class Summary
+    {
+        private String path;
+        long lastMod = 0;
+        long size = 0;
+        long nFiles = 0;
+
+        Summary(String path) {
+            this.path = path;
+        }
+
+        void add(long lastMod, long size, long nFiles) {
+            if(lastMod > this.lastMod) {
+                this.lastMod = lastMod;
+            }
+            this.size += size;
+            this.nFiles += nFiles;
+        }
+
+        /**
+         * @return The value of path.
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return Whether there are no files modified after staleCutoff.
+         */
+        public boolean isStale() {
+            return lastMod <= staleCutoff;
+        }
+    }
+
+    /**
+     * StaleTask Task to summarize a subtree and collect its stale subtrees.
+     * Uses the cached entry for a directory if the directory modification time
+     * has not changed.
+     * 
+     * @author Kenneth Evans, Jr.
+     */
+    class StaleTask extends RecursiveTask<Summary>
+    {
+        private static final long serialVersionUID = 1L;
+        private File dir;
+
+        StaleTask(File dir) {
+            this.dir = dir;
+        }
+
+        protected Summary compute() {
+            String path = dir.getPath();
+            long dirMod = dir.lastModified();
+            if(dirMod == 0) return null; // No longer exists
+            DirEntry entry = prevCache.get(path);
+            if(entry != null && entry.dirMod == dirMod) {
+                nDirsCached.incrementAndGet();
             } else {
-                lastMod1 = file1.lastModified();
+                entry = listDir(dirMod);
+                if(entry == null) return null;
             }
-            if(lastMod1 > lastMod) {
-                lastMod = lastMod1;
+            newCache.put(path, entry);
+
+            Summary summary = new Summary(path);
+            summary.add(entry.lastMod, entry.size, entry.nFiles);
+            List<StaleTask> tasks = new ArrayList<StaleTask>();
+            for(String name : entry.subdirs) {
+                tasks.add(new StaleTask(new File(dir, name)));
             }
+            List<Summary> children = new ArrayList<Summary>();
+            for(StaleTask task : invokeAll(tasks)) {
+                Summary child = task.join();
+                if(child != null) {
+                    summary.add(child.lastMod, child.size, child.nFiles);
+                    children.add(child);
+                }
+            }
+            if(!summary.isStale()) {
+                // The stale children are the topmost ones
+                for(Summary child : children) {
+                    if(child.isStale()) {
+                        staleResults.add(child);
+                    }
+                }
+            }
+            return summary;
         }
-        return (lastMod > prevLastMod) ? lastMod : prevLastMod;
+
+        private DirEntry listDir(long dirMod) {
+            DirectoryLister lister = null;
+            try {
+                lister = new DirectoryLister(dir, DirectoryLister.Order.NONE);
+            } catch(IOException ex) {
+                return null;
+            }
+            nDirsListed.incrementAndGet();
+            long lastMod = 0, size = 0, nFiles = 0;
+            List<String> subdirs = new ArrayList<String>();
+            try {
+                for(File file1 : lister) {
+                    if(isSymbolicLink(file1)) {
+                        continue;
+                    }
+                    if(file1.isDirectory()) {
+                        subdirs.add(file1.getName());
+                    } else {
+                        long lastMod1 = file1.lastModified();
+                        if(lastMod1 > lastMod) {
+                            lastMod = lastMod1;
+                        }
+                        size += file1.length();
+                        nFiles++;
+                    }
+                }
+            } finally {
+                lister.close();
+            }
+            return new DirEntry(dirMod, lastMod, size, nFiles, subdirs
+                .toArray(new String[subdirs.size()]));
+        }
+    }
+
+    /**
+     * Loads the directory statistics from the previous run. The format is one
+     * line per directory with tab-separated path, directory modification time,
+     * file lastMod, file size, number of files, and subdirectory names.
+     */
+    protected void loadCache() {
+        if(cacheFileName == null) return;
+        File file = new File(cacheFileName);
+        if(!file.exists()) return;
+        BufferedReader in = null;
+        try {
+            in = new BufferedReader(new FileReader(file));
+            String line;
+            while((line = in.readLine()) != null) {
+                String[] tokens = line.split("\t", -1);
+                if(tokens.length < 5) continue;
+                String[] subdirs = new String[tokens.length - 5];
+                System.arraycopy(tokens, 5, subdirs, 0, subdirs.length);
+                prevCache.put(tokens[0], new DirEntry(Long
+                    .parseLong(tokens[1]), Long.parseLong(tokens[2]), Long
+                    .parseLong(tokens[3]), Long.parseLong(tokens[4]), subdirs));
+            }
+        } catch(Exception ex) {
+            System.out.println("Could not read " + cacheFileName + ": "
+                + ex.getMessage());
+            prevCache.clear();
+        } finally {
+            try {
+                if(in != null) in.close();
+            } catch(IOException ex) {
+                // Do nothing
+            }
+        }
+    }
+
+    /**
+     * Saves the directory statistics for the next run. Directories with names
+     * that cannot be represented in the file are left out and will be listed
+     * again on the next run.
+     */
+    protected void saveCache() {
+        if(cacheFileName == null || newCache.isEmpty()) return;
+        PrintWriter out = null;
+        try {
+            out = new PrintWriter(new BufferedWriter(new FileWriter(
+                cacheFileName)));
+            for(Map.Entry<String, DirEntry> mapEntry : newCache.entrySet()) {
+                String path = mapEntry.getKey();
+                DirEntry entry = mapEntry.getValue();
+                if(!isCacheable(path)) continue;
+                StringBuilder sb = new StringBuilder(path);
+                sb.append('\t').append(entry.dirMod).append('\t').append(
+                    entry.lastMod).append('\t').append(entry.size).append('\t')
+                    .append(entry.nFiles);
+                for(String name : entry.subdirs) {
+                    if(!isCacheable(name)) {
+                        sb = null;
+                        break;
+                    }
+                    sb.append('\t').append(name);
+                }
+                if(sb != null) {
+                    out.println(sb);
+                }
+            }
+        } catch(IOException ex) {
+            System.out.println("Could not write " + cacheFileName + ": "
+                + ex.getMessage());
+        } finally {
+            if(out != null) out.close();
+        }
+    }
+
+    private static boolean isCacheable(String name) {
+        return name.indexOf('\t') < 0 && name.indexOf('\n') < 0
+            && name.indexOf('\r') < 0;
+    }
+
+    /**
+     * Prints out the stale subtrees.
+     */
+    public void printStaleResults() {
+        String format = "  %-60s %-28s %10.3f MB %8d files\n";
+        List<Summary> list = new ArrayList<Summary>(staleResults);
+        Collections.sort(list, new Comparator<Summary>() {
+            public int compare(Summary sa, Summary sb) {
+                return sa.getPath().compareTo(sb.getPath());
+            }
+        });
+        long totalSize = 0;
+        System.out.println("Not modified since " + new Date(staleCutoff) + ":");
+        for(Summary summary : list) {
+            totalSize += summary.size;
+            System.out.printf(format, summary.getPath(),
+                summary.lastMod > 0 ? new Date(summary.lastMod) : "No files",
+                summary.size / (1024. * 1024.), summary.nFiles);
+        }
+        System.out.printf("  %d subtrees %.3f MB\n", list.size(), totalSize
+            / (1024. * 1024.));
+        System.out.printf("  Directories listed: %d From cache: %d\n",
+            nDirsListed.get(), nDirsCached.get());
     }
 
     /**
      * Prints out the results
      */
     public void printResults() {
+        if(staleCutoff > 0) {
+            printStaleResults();
+            return;
+        }
         String format = "  %-40s %s\n";
         long overallLastMod = 0;
         long lastMod;
@@ -238,15 +863,46 @@ public class PrintDirLastMod extends ProcessTree
                 overallLastMod = lastMod;
             }
         }
-        Date date = new Date(overallLastMod);
-        System.out.printf(format, "OVERALL", overallLastMod > 0 ? date
-            : "Unknown");
+        System.out.printf(format, "OVERALL", formatLastMod(overallLastMod));
         for(Data data : results) {
-            lastMod = data.getLastMod();
-            date = new Date(data.getLastMod());
             System.out.printf(format, data.getFile().getName(),
-                lastMod > 0 ? date : "Unknown");
+                formatLastMod(data.getLastMod()));
+        }
+        printActivity();
+    }
+
+    /**
+     * Formats a lastMod for printing.
+     * 
+     * @param lastMod
+     * @return
+     */
+    private Object formatLastMod(long lastMod) {
+        if(lastMod <= 0) {
+            return "Unknown";
         }
+        if(threshold > 0 && lastMod > threshold) {
+            return "Modified after " + new Date(threshold);
+        }
+        return new Date(lastMod);
+    }
+
+    /**
+     * Parses a date given as yyyy-MM-dd or yyyy-MM-dd HH:mm:ss.
+     * 
+     * @param string
+     * @return The time [milliseconds] or -1 if it cannot be parsed.
+     */
+    public static long parseDate(String string) {
+        String[] patterns = {"yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd"};
+        for(String pattern : patterns) {
+            try {
+                return new SimpleDateFormat(pattern).parse(string).getTime();
+            } catch(ParseException ex) {
+                // Try the next one
+            }
+        }
+        return -1;
     }
 
     /**
@@ -318,6 +974,45 @@ public class PrintDirLastMod extends ProcessTree
                 case 'h':
                     usage();
                     System.exit(0);
+                case 'a':
+                    staleCutoff = parseDate(args[++i]);
+                    if(staleCutoff < 0) {
+                        System.err.println("\n\nInvalid date: " + args[i]);
+                        usage();
+                        return false;
+                    }
+                    break;
+                case 'c':
+                    cacheFileName = args[++i];
+                    break;
+                case 'o':
+                    csvFileName = args[++i];
+                    break;
+                case 'u':
+                    i++;
+                    if(args[i].startsWith("d")) {
+                        activityUnit = Unit.DAY;
+                    } else if(args[i].startsWith("w")) {
+                        activityUnit = Unit.WEEK;
+                    } else if(args[i].startsWith("m")) {
+                        activityUnit = Unit.MONTH;
+                    } else {
+                        System.err.println("\n\nInvalid unit: " + args[i]);
+                        usage();
+                        return false;
+                    }
+                    break;
+                case 'j':
+                    nThreads = Integer.parseInt(args[++i]);
+                    break;
+                case 't':
+                    threshold = parseDate(args[++i]);
+                    if(threshold < 0) {
+                        System.err.println("\n\nInvalid date: " + args[i]);
+                        usage();
+                        return false;
+                    }
+                    break;
                 default:
                     System.err.println("\n\nInvalid option: " + args[i]);
                     usage();
@@ -333,6 +1028,15 @@ public class PrintDirLastMod extends ProcessTree
             usage();
             return false;
         }
+        if(activityUnit != Unit.NONE && (threshold > 0 || staleCutoff > 0)) {
+            System.err.println("\n\n-u cannot be used with -t or -a");
+            usage();
+            return false;
+        }
+        if(csvFileName != null && activityUnit == Unit.NONE) {
+            activityUnit = Unit.MONTH;
+        }
+        loadCache();
         return true;
     }
 
@@ -349,7 +1053,16 @@ public class PrintDirLastMod extends ProcessTree
                 + "  PrintTree: Print directory last modification time for the given list \n"
                 + "             of directories\n"
                 + "             Use \"d:\\.\" for the root\n" + "\n"
-                + "  Options:\n" + "    -h        Help (This message)\n" + "");
+                + "  Options:\n"
+                + "    -a date   Print subtrees not modified since date\n"
+                + "    -c file   Cache of directory statistics for -a\n"
+                + "              (Files modified in place may be missed)\n"
+                + "    -h        Help (This message)\n"
+                + "    -j int    Number of threads (Default is the number of processors)\n"
+                + "    -o file   Also write the activity to a CSV file\n"
+                + "    -t date   Only check for changes after date\n"
+                + "    -u unit   Print activity per day, week, or month\n"
+                + "  Dates are yyyy-MM-dd or \"yyyy-MM-dd HH:mm:ss\"\n" + "");
     }
 
     /**
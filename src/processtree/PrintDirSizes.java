@@ -7,12 +7,12 @@
 package processtree;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
 import java.util.Date;
-import java.util.List;
-import java.util.ListIterator;
+import java.util.Properties;
 import java.util.TreeSet;
 
 public class PrintDirSizes extends ProcessTree
@@ -24,6 +24,23 @@ public class PrintDirSizes extends ProcessTree
     private int rootAbsLength = 0;
     private int rootCanonicalLength = 0;
 
+    /** File holding the entry counts from the previous run, or null. */
+    private String statsFileName = null;
+    /** Entry counts for the level 2 directories from the previous run. */
+    private Properties prevStats = new Properties();
+    /** Entry counts for the level 2 directories from this run. */
+    private Properties newStats = new Properties();
+    /** Reports percent complete, rate, and ETA. */
+    private ProgressReporter progress = null;
+    /** Sum of the previous counts for the directories not yet processed. */
+    private long knownRemaining = 0;
+    /** Number of directories not yet processed with a previous count. */
+    private int nKnownRemaining = 0;
+    /** Number of directories not yet processed with no previous count. */
+    private int nUnknownRemaining = 0;
+    /** Number of directories processed so far. */
+    private int nDirsDone = 0;
+
     /**
      * Data Internal class to hold a File and the lastMod
      * 
@@ -99,6 +116,7 @@ public class PrintDirSizes extends ProcessTree
      */
     public void processEnd(Object obj) {
         printResults();
+        saveStats();
     }
 
     /*
@@ -129,12 +147,15 @@ public class PrintDirSizes extends ProcessTree
             if(level > 2) return; // Will do finally first
             if(item.isDirectory()) {
                 long size = 0;
-                File directoryList[] = item.listFiles();
+                if(level == 1) {
+                    startProgress(item);
+                }
                 if(level == 2) {
                     if(showProgress) {
                         prev = System.currentTimeMillis();
                         System.out.printf("%s Processing %s...\n", timeStamp(),
                             item.getName());
+                        updateExpected(item);
                     }
                     // Check for symbolic link
                     if(isSymbolicLink(item)) {
@@ -151,8 +172,13 @@ public class PrintDirSizes extends ProcessTree
                             }
                         }
                     } else {
+                        long startCount = progress.getCount();
                         size = getDirSize(item);
+                        nDirsDone++;
+                        newStats.setProperty(item.getAbsolutePath(), Long
+                            .toString(progress.getCount() - startCount));
                         if(showProgress) {
+                            progress.report();
                             cur = System.currentTimeMillis();
                             double elapsed = (cur - prev) / (60000.);
                             System.out
@@ -166,12 +192,14 @@ public class PrintDirSizes extends ProcessTree
                     Data data = new Data(item, size);
                     results.add(data);
                 }
-                // Convert it to a list so we can sort it
-                List<File> list = Arrays.asList(directoryList);
-                ListIterator<File> iter = list.listIterator();
-                while(iter.hasNext()) {
-                    File file1 = (File)iter.next();
-                    process((Object)file1);
+                DirectoryLister lister = new DirectoryLister(item,
+                    DirectoryLister.Order.NONE);
+                try {
+                    for(File file1 : lister) {
+                        process((Object)file1);
+                    }
+                } finally {
+                    lister.close();
                 }
             } else {
                 return;
@@ -192,23 +220,153 @@ public class PrintDirSizes extends ProcessTree
     protected long getDirSize(File dir) {
         long size = 0;
         if(!dir.isDirectory()) return 0;
-        File directoryList[] = dir.listFiles();
-        List<File> list = Arrays.asList(directoryList);
-        ListIterator<File> iter = list.listIterator();
-        while(iter.hasNext()) {
-            File file1 = (File)iter.next();
-            if(isSymbolicLink(file1)) {
-                return 0;
-            }
-            if(file1.isDirectory()) {
-                size += getDirSize(file1);
-            } else {
-                size += file1.length();
+        DirectoryLister lister = null;
+        try {
+            lister = new DirectoryLister(dir, DirectoryLister.Order.NONE);
+            for(File file1 : lister) {
+                progress.increment();
+                if(isSymbolicLink(file1)) {
+                    return 0;
+                }
+                if(file1.isDirectory()) {
+                    size += getDirSize(file1);
+                } else {
+                    size += file1.length();
+                }
             }
+        } catch(IOException ex) {
+            System.out.println(ex.getMessage());
+        } finally {
+            if(lister != null) lister.close();
         }
         return size;
     }
 
+    /**
+     * Initializes the progress reporting for the level 2 directories of a
+     * top-level directory. Uses the entry counts from the previous run where
+     * available.
+     * 
+     * @param dir The top-level directory.
+     * @throws IOException
+     */
+    protected void startProgress(File dir) throws IOException {
+        progress = new ProgressReporter();
+        knownRemaining = 0;
+        nKnownRemaining = 0;
+        nUnknownRemaining = 0;
+        nDirsDone = 0;
+        DirectoryLister lister = new DirectoryLister(dir,
+            DirectoryLister.Order.NONE);
+        try {
+            for(File file : lister) {
+                if(!file.isDirectory()) continue;
+                long prevCount = getPrevCount(file);
+                if(prevCount < 0) {
+                    nUnknownRemaining++;
+                } else {
+                    knownRemaining += prevCount;
+                    nKnownRemaining++;
+                }
+            }
+        } finally {
+            lister.close();
+        }
+    }
+
+    /**
+     * Updates the expected total when starting a level 2 directory. Directories
+     * with no previous count are assumed to have the average number of entries
+     * of the directories done so far.
+     * 
+     * @param dir The directory being started.
+     */
+    protected void updateExpected(File dir) {
+        long prevCount = getPrevCount(dir);
+        if(prevCount < 0) {
+            nUnknownRemaining--;
+        } else {
+            knownRemaining -= prevCount;
+            nKnownRemaining--;
+        }
+        long count = progress.getCount();
+        long average = 0;
+        if(nDirsDone > 0) {
+            average = count / nDirsDone;
+        } else if(nKnownRemaining > 0) {
+            // Nothing done yet, use the previous run
+            average = knownRemaining / nKnownRemaining;
+        }
+        long current = prevCount < 0 ? average : prevCount;
+        long expected = count + current + knownRemaining + nUnknownRemaining
+            * average;
+        progress.setExpected(expected);
+    }
+
+    /**
+     * Gets the entry count for a directory from the previous run.
+     * 
+     * @param dir
+     * @return The count or -1 if not known.
+     */
+    protected long getPrevCount(File dir) {
+        String val = prevStats.getProperty(dir.getAbsolutePath());
+        if(val == null) return -1;
+        try {
+            return Long.parseLong(val);
+        } catch(NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Loads the entry counts from the previous run, if there is a stats file.
+     */
+    protected void loadStats() {
+        if(statsFileName == null) return;
+        File file = new File(statsFileName);
+        if(!file.exists()) return;
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            prevStats.load(in);
+        } catch(IOException ex) {
+            System.out.println("Could not read " + statsFileName + ": "
+                + ex.getMessage());
+        } finally {
+            try {
+                if(in != null) in.close();
+            } catch(IOException ex) {
+                // Do nothing
+            }
+        }
+    }
+
+    /**
+     * Saves the entry counts for the next run, if there is a stats file.
+     * Counts for directories not processed this time are kept.
+     */
+    protected void saveStats() {
+        if(statsFileName == null) return;
+        Properties stats = new Properties();
+        stats.putAll(prevStats);
+        stats.putAll(newStats);
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(statsFileName);
+            stats.store(out, "PrintDirSizes entry counts");
+        } catch(IOException ex) {
+            System.out.println("Could not write " + statsFileName + ": "
+                + ex.getMessage());
+        } finally {
+            try {
+                if(out != null) out.close();
+            } catch(IOException ex) {
+                // Do nothing
+            }
+        }
+    }
+
     /**
      * Prints out the results
      */
@@ -297,6 +455,9 @@ public class PrintDirSizes extends ProcessTree
                 case 'h':
                     usage();
                     System.exit(0);
+                case 'p':
+                    statsFileName = args[++i];
+                    break;
                 default:
                     System.err.println("\n\nInvalid option: " + args[i]);
                     usage();
@@ -312,6 +473,7 @@ public class PrintDirSizes extends ProcessTree
             usage();
             return false;
         }
+        loadStats();
         return true;
     }
 
@@ -326,7 +488,10 @@ public class PrintDirSizes extends ProcessTree
             + "  PrintTree: Print directory sizes for the given list \n"
             + "             of directories\n"
             + "             Use \"d:\\.\" for the root\n" + "\n"
-            + "  Options:\n" + "    -h        Help (This message)\n" + "");
+            + "  Options:\n" + "    -h        Help (This message)\n"
+            + "    -p file   File with entry counts from the previous run\n"
+            + "              (Used for the ETA and updated at the end)\n"
+            + "");
     }
 
     /**
@@ -6,23 +6,75 @@
 
 package processtree;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.ListIterator;
 
 public class PrintTree extends ProcessTree
 {
   protected static final int MAX_DEPTH = 1000;
   protected static final String INDENT = "| ";
+  protected static final String BRANCH = "\u251c\u2500\u2500 ";
+  protected static final String LAST_BRANCH = "\u2514\u2500\u2500 ";
+  protected static final String PIPE = "\u2502   ";
+  protected static final String SPACE = "    ";
+  protected static final int BUFFER_SIZE = 1 << 16;
+  /** Default number of MB of output to hold in memory for -s. */
+  protected static final int MAX_BUFFERED_MB = 64;
+  public static final String LS = System.getProperty("line.separator");
   private boolean directoriesFirst = false;
   private boolean filesFirst = false;
   private boolean doSizes = false;
   private boolean directoriesOnly = false;
-  private Comparator<File> fileComparator = null;
   private int maxDepth = MAX_DEPTH;
+  private boolean connectors = false;
+  private Charset charset = Charset.defaultCharset();
+  /** Buffered output. Flushed at the end of each directory in the list. */
+  private BufferedOutputStream rawOut = new BufferedOutputStream(
+    new FileOutputStream(FileDescriptor.out), BUFFER_SIZE);
+  private PrintWriter out = new PrintWriter(new OutputStreamWriter(rawOut,
+    charset), false);
+  /** Reused to build each line. */
+  private StringBuilder line = new StringBuilder();
+  /** The output for the current directory with -s, else null. */
+  private Segment current = null;
+  /** The directories being processed with -s, outermost first. */
+  private List<Segment> openSegments = new ArrayList<Segment>();
+  /** The number of chars held in memory by the open segments. */
+  private long bufferedChars = 0;
+  /** The number of chars to hold in memory before spilling to disk. */
+  private long maxBufferedChars = MAX_BUFFERED_MB * 1024L * 1024L / 2;
+  /** The file holding spilled output, or null. */
+  private File spoolFile = null;
+  private RandomAccessFile spool = null;
+  /** The directory to export to with -x, else null. */
+  private File exportDir = null;
+  /** The next id for an exported directory. */
+  private int nextId = 0;
+  /** The shard subdirectory created last. */
+  private int lastShardBucket = -1;
+  /** The JSON for the exported top-level directories. */
+  private StringBuilder exportRoots = new StringBuilder();
+  /** Number of shards in each shard subdirectory. */
+  protected static final int SHARDS_PER_DIR = 1000;
+  /** Number of entries the viewer shows before a "more" item. */
+  protected static final int VIEWER_PAGE_SIZE = 1000;
+  /** The prefix for the children of the current directory. */
+  private StringBuilder prefix = new StringBuilder();
+  /** Whether the item being processed is the last in its directory. */
+  private boolean isLast = true;
  
   /**
    * PrintTree constructor.
@@ -30,38 +82,39 @@ public class PrintTree extends ProcessTree
   public PrintTree()
   {
     super();
-    fileComparator = new Comparator<File>() {
-      public int compare(File fa, File fb) {
-        if(directoriesFirst) {
-          if(fa.isDirectory() && !fb.isDirectory()) return -1;
-          if(fb.isDirectory() && !fa.isDirectory()) return 1;
-        } else if(filesFirst) {
-          if(fa.isDirectory() && !fb.isDirectory()) return 1;
-          if(fb.isDirectory() && !fa.isDirectory()) return -1;
-        }
-        return(fa.getName().compareTo(fb.getName()));
-      }
-    };
   }
   
   /* (non-Javadoc)
    * @see processtree.ProcessTree#processBefore(java.lang.Object)
    */
   public void processBefore(Object obj) {
-    System.out.println((String)obj);
+    out.println((String)obj);
   }
   
   /* (non-Javadoc)
    * @see processtree.ProcessTree#processBetween(java.lang.Object)
    */
   public void processBetween(Object obj) {
-    System.out.println();
+    releaseSpool();
+    out.println();
+    out.flush();
   }
   
   /* (non-Javadoc)
    * @see processtree.ProcessTree#processEnd(java.lang.Object)
    */
   public void processEnd(Object obj) {
+    releaseSpool();
+    if(exportDir != null) {
+      try {
+        writeViewer();
+        out.println("Wrote " + nextId + " shards and index.html to "
+          + exportDir.getPath());
+      } catch(IOException ex) {
+        out.println("Error writing viewer: " + ex.getMessage());
+      }
+    }
+    out.flush();
   }
   
   /* (non-Javadoc)
@@ -74,50 +127,474 @@ public class PrintTree extends ProcessTree
         return;
       }
       level++;
-      if(level > maxDepth) return; // Will do finally first
+      if(exportDir != null) {
+        // Use the same depths as the text output
+        if(level > maxDepth) {
+          return; // Will do finally first
+        }
+        int id = level < maxDepth ? nextId++ : -1;
+        if(exportRoots.length() > 0) {
+          exportRoots.append(",");
+        }
+        exportRoots.append("{\"n\":").append(quote(item.getPath())).append(
+          ",\"d\":").append(id).append("}");
+        if(id >= 0) {
+          exportShard(item, id);
+        }
+        return; // Will do finally first
+      }
+      if(level > maxDepth) {
+        // Still count what is below for -s
+        if(current != null) {
+          addUnprinted(item, current);
+        }
+        return; // Will do finally first
+      }
       if(item.isDirectory()) {
-        File dirList[] = item.listFiles();
+        DirectoryLister lister = new DirectoryLister(item, getOrder());
+        boolean last = isLast;
+        Segment parent = current;
         if(doSizes) {
-          System.out.println(tabs() + item.getName() + " [" + dirList.length
-            + " items]");
+          // Hold the output until the totals are known
+          current = new Segment();
+          openSegments.add(current);
         } else {
-          System.out.println(tabs() + item.getName());
+          printLine(item.getName(), null);
         }
-        // Convert it to a list so we can sort it
-        List<File> list = Arrays.asList(dirList);
-        Collections.sort(list, fileComparator);
-        ListIterator<File> iter = list.listIterator();
-        while(iter.hasNext()) {
-          File file1 = (File)iter.next();
-          process((Object)file1);
+        int prefixLength = prefix.length();
+        if(!connectors) {
+          prefix.append(INDENT);
+        } else if(level > 1) {
+          prefix.append(isLast ? SPACE : PIPE);
+        }
+        Segment segment = current;
+        boolean incomplete = false;
+        // Hold back each printed entry until the next one is found, so the
+        // last one printed gets the last connector. Files hidden by -o are
+        // only counted and are done right away.
+        File pending = null;
+        try {
+          Iterator<File> iter = lister.iterator();
+          while(iter.hasNext()) {
+            File file1 = iter.next();
+            if(directoriesOnly && !file1.isDirectory()) {
+              process((Object)file1);
+              continue;
+            }
+            if(pending != null) {
+              isLast = false;
+              process((Object)pending);
+            }
+            pending = file1;
+          }
+          if(pending != null) {
+            isLast = true;
+            File file1 = pending;
+            pending = null;
+            process((Object)file1);
+          }
+        } catch(RuntimeException ex) {
+          // Keep what was listed so far and note the error under it
+          incomplete = true;
+          if(pending != null) {
+            isLast = false;
+            process((Object)pending);
+          }
+          isLast = true;
+          printLine(ex.getMessage(), null);
+        } finally {
+          lister.close();
+          prefix.setLength(prefixLength);
+          isLast = last;
+          if(doSizes) {
+            openSegments.remove(openSegments.size() - 1);
+            current = parent;
+          }
+        }
+        if(doSizes) {
+          buildLine(item.getName(), " [" + lister.getCount() + " items, "
+            + segment.nFiles + " files, " + segment.size + " bytes"
+            + (incomplete ? ", incomplete]" : "]"));
+          if(parent != null) {
+            parent.add(line, segment);
+          } else {
+            out.append(line);
+            writeSegment(segment);
+          }
         }
       } else {
+        long length = 0;
+        if(doSizes) {
+          length = item.length();
+        }
+        if(current != null) {
+          current.size += length;
+          current.nFiles++;
+        }
         if(!directoriesOnly) {
           if(doSizes) {
-            System.out.println(tabs() + item.getName() + " [" + item.length()
-              + "]");
+            printLine(item.getName(), " [" + length + "]");
           } else {
-            System.out.println(tabs() + item.getName());
+            printLine(item.getName(), null);
           }
         }
       }
     } catch(Exception ex) {
-      System.out.println(tabs() + ex.getMessage());
+      printLine(ex.getMessage(), null);
     } finally {
       level--;
     }
   }
 
   /**
-   * Create a String with the appropriate number of tabs for the current level.
+   * Builds the line for the current item in line, using the prefix for the
+   * current level.
+   * @param name
+   * @param suffix May be null.
+   */
+  private void buildLine(String name, String suffix) {
+    line.setLength(0);
+    line.append(prefix);
+    if(connectors && level > 1) {
+      line.append(isLast ? LAST_BRANCH : BRANCH);
+    }
+    line.append(name);
+    if(suffix != null) {
+      line.append(suffix);
+    }
+    line.append(LS);
+  }
+
+  /**
+   * Writes a line for the current item to the output buffer, or to the
+   * current segment with -s.
+   * @param name
+   * @param suffix May be null.
+   */
+  private void printLine(String name, String suffix) {
+    buildLine(name, suffix);
+    if(current != null) {
+      current.add(line);
+    } else {
+      out.append(line);
+    }
+  }
+
+  /**
+   * Adds the sizes of an item below the maximum depth to a segment without
+   * printing anything. Symbolic links to directories are not followed, since
+   * nothing bounds the depth here.
+   * @param item
+   * @param segment
+   */
+  private void addUnprinted(File item, Segment segment) throws IOException {
+    if(Files.isSymbolicLink(item.toPath())) {
+      if(!item.isDirectory()) {
+        segment.size += item.length();
+        segment.nFiles++;
+      }
+    } else if(item.isDirectory()) {
+      DirectoryLister lister = new DirectoryLister(item,
+        DirectoryLister.Order.NONE);
+      try {
+        for(File file1 : lister) {
+          addUnprinted(file1, segment);
+        }
+      } finally {
+        lister.close();
+      }
+    } else {
+      segment.size += item.length();
+      segment.nFiles++;
+    }
+  }
+
+  /**
+   * Segment Internal class to hold the output for a directory with -s until
+   * its totals are known. The output is a list of pieces, each either a
+   * StringBuilder in memory or a long[] {offset, length} in the spool file.
+   * Completed subdirectories are added by moving their pieces, not copying
+   * them.
+   */
+  class Segment
+  {
+    List<Object> pieces = new ArrayList<Object>();
+    long size = 0;
+    long nFiles = 0;
+
+    /**
+     * Appends text.
+     * @param text
+     */
+    void add(CharSequence text) {
+      Object lastPiece = pieces.isEmpty() ? null : pieces.get(pieces.size() - 1);
+      if(lastPiece instanceof StringBuilder) {
+        ((StringBuilder)lastPiece).append(text);
+      } else {
+        pieces.add(new StringBuilder(text));
+      }
+      bufferedChars += text.length();
+      if(bufferedChars > maxBufferedChars) {
+        spill();
+      }
+    }
+
+    /**
+     * Appends the header and the output of a completed subdirectory.
+     * @param header
+     * @param child
+     */
+    void add(CharSequence header, Segment child) {
+      pieces.add(new StringBuilder(header));
+      bufferedChars += header.length();
+      pieces.addAll(child.pieces);
+      size += child.size;
+      nFiles += child.nFiles;
+      if(bufferedChars > maxBufferedChars) {
+        spill();
+      }
+    }
+  }
+
+  /**
+   * Writes all the in-memory pieces of the open segments to the spool file.
+   */
+  private void spill() {
+    try {
+      if(spool == null) {
+        spoolFile = File.createTempFile("PrintTree", ".spool");
+        spool = new RandomAccessFile(spoolFile, "rw");
+      }
+      for(Segment segment : openSegments) {
+        List<Object> pieces = segment.pieces;
+        for(int i = 0; i < pieces.size(); i++) {
+          Object piece = pieces.get(i);
+          if(piece instanceof StringBuilder) {
+            byte[] bytes = piece.toString().getBytes(charset);
+            long offset = spool.length();
+            spool.seek(offset);
+            spool.write(bytes);
+            pieces.set(i, new long[] {offset, bytes.length});
+          }
+        }
+      }
+      bufferedChars = 0;
+    } catch(IOException ex) {
+      // Keep going in memory
+      System.err.println("Cannot spill output to disk: " + ex.getMessage());
+      maxBufferedChars = Long.MAX_VALUE;
+    }
+  }
+
+  /**
+   * Writes the pieces of a completed top-level segment to the output and
+   * releases the spool file.
+   * @param segment
+   * @throws IOException
+   */
+  private void writeSegment(Segment segment) throws IOException {
+    byte[] buf = null;
+    for(Object piece : segment.pieces) {
+      if(piece instanceof StringBuilder) {
+        out.append((StringBuilder)piece);
+      } else {
+        long[] range = (long[])piece;
+        if(buf == null) {
+          buf = new byte[BUFFER_SIZE];
+        }
+        out.flush();
+        spool.seek(range[0]);
+        long left = range[1];
+        while(left > 0) {
+          int n = spool.read(buf, 0, (int)Math.min(buf.length, left));
+          if(n < 0) break;
+          rawOut.write(buf, 0, n);
+          left -= n;
+        }
+      }
+    }
+    bufferedChars = 0;
+    releaseSpool();
+  }
+
+  /**
+   * Closes and deletes the spool file, if any.
+   */
+  private void releaseSpool() {
+    if(spool != null) {
+      try {
+        spool.close();
+      } catch(IOException ex) {
+        // Ignore
+      }
+      spool = null;
+    }
+    if(spoolFile != null) {
+      if(!spoolFile.delete() && spoolFile.exists()) {
+        System.err.println("Cannot delete " + spoolFile.getPath());
+      }
+      spoolFile = null;
+    }
+  }
+
+  /**
+   * Writes the shard for a directory, then the shards for its subdirectories.
+   * Each shard is a small script that passes the directory's entries as JSON
+   * to PrintTreeShard(id, data), so the viewer can load it on demand, even
+   * from a file: URL. Only one listing per level is open at a time, so memory
+   * use does not depend on the size of the tree.
+   * @param dir
+   * @param id
+   * @throws IOException
+   */
+  private void exportShard(File dir, int id) throws IOException {
+    int bucket = id / SHARDS_PER_DIR;
+    File shardDir = new File(exportDir, "shards" + File.separator + bucket);
+    if(bucket != lastShardBucket) {
+      if(!shardDir.isDirectory() && !shardDir.mkdirs()) {
+        throw new IOException("Cannot create " + shardDir.getPath());
+      }
+      lastShardBucket = bucket;
+    }
+    Writer writer = new BufferedWriter(new OutputStreamWriter(
+      new FileOutputStream(new File(shardDir, id + ".js")), "UTF-8"),
+      BUFFER_SIZE);
+    DirectoryLister lister = null;
+    try {
+      writer.write("PrintTreeShard(" + id + ",{\"p\":" + quote(dir.getPath())
+        + ",\"c\":[");
+      lister = new DirectoryLister(dir, getOrder());
+      boolean first = true;
+      for(File file1 : lister) {
+        boolean isDir = file1.isDirectory();
+        if(!isDir && directoriesOnly) continue;
+        writer.write(first ? "\n{\"n\":" : ",\n{\"n\":");
+        writer.write(quote(file1.getName()));
+        first = false;
+        if(isDir) {
+          // Directories at the maximum depth are shown but not expandable
+          int childId = level + 1 < maxDepth ? nextId++ : -1;
+          writer.write(",\"d\":" + childId + "}");
+          if(childId >= 0) {
+            level++;
+            try {
+              exportShard(file1, childId);
+            } finally {
+              level--;
+            }
+          }
+        } else if(doSizes) {
+          writer.write(",\"s\":" + file1.length() + "}");
+        } else {
+          writer.write("}");
+        }
+      }
+      writer.write("]});\n");
+    } finally {
+      if(lister != null) lister.close();
+      writer.close();
+    }
+  }
+
+  /**
+   * Writes index.html, which shows the exported top-level directories and
+   * loads the shard for a directory when it is expanded.
+   * @throws IOException
+   */
+  private void writeViewer() throws IOException {
+    if(!exportDir.isDirectory() && !exportDir.mkdirs()) {
+      throw new IOException("Cannot create " + exportDir.getPath());
+    }
+    Writer writer = new BufferedWriter(new OutputStreamWriter(
+      new FileOutputStream(new File(exportDir, "index.html")), "UTF-8"));
+    try {
+      writer.write("<!DOCTYPE html>\n"
+        + "<html><head><meta charset=\"utf-8\"><title>PrintTree</title>\n"
+        + "<style>\n"
+        + "body{font-family:monospace}\n"
+        + "ul{list-style:none;margin:0;padding-left:1.5em}\n"
+        + ".d{cursor:pointer;font-weight:bold}\n"
+        + ".d:before{content:\"+ \"}\n"
+        + ".d.open:before{content:\"- \"}\n"
+        + ".s{color:gray}\n"
+        + ".more{cursor:pointer;color:blue}\n"
+        + "</style>\n"
+        + "<script>\n"
+        + "var roots=[" + exportRoots + "];\n"
+        + "var PAGE=" + VIEWER_PAGE_SIZE + ";\n"
+        + "var pending={};\n"
+        + "function PrintTreeShard(id,data){var cb=pending[id];"
+        + "delete pending[id];if(cb)cb(data);}\n"
+        + "function load(id,cb){pending[id]=cb;"
+        + "var s=document.createElement(\"script\");"
+        + "s.src=\"shards/\"+Math.floor(id/" + SHARDS_PER_DIR
+        + ")+\"/\"+id+\".js\";"
+        + "s.onload=function(){s.parentNode.removeChild(s);};"
+        + "document.head.appendChild(s);}\n"
+        + "function item(ul,c){var li=document.createElement(\"li\");"
+        + "var span=document.createElement(\"span\");"
+        + "span.textContent=c.n;li.appendChild(span);"
+        + "if(c.s!==undefined){var s=document.createElement(\"span\");"
+        + "s.className=\"s\";s.textContent=\" [\"+c.s+\"]\";"
+        + "li.appendChild(s);}"
+        + "if(c.d!==undefined){if(c.d>=0){span.className=\"d\";"
+        + "span.onclick=function(){toggle(li,span,c.d);};}"
+        + "else{span.textContent+=\"/\";}}"
+        + "ul.appendChild(li);}\n"
+        + "function render(ul,list,start){"
+        + "var end=Math.min(list.length,start+PAGE);"
+        + "for(var i=start;i<end;i++)item(ul,list[i]);"
+        + "if(end<list.length){var li=document.createElement(\"li\");"
+        + "li.className=\"more\";"
+        + "li.textContent=\"... \"+(list.length-end)+\" more\";"
+        + "li.onclick=function(){ul.removeChild(li);render(ul,list,end);};"
+        + "ul.appendChild(li);}}\n"
+        + "function toggle(li,span,id){var ul=li.querySelector(\"ul\");"
+        + "if(ul){ul.style.display=ul.style.display==\"none\"?\"\":\"none\";"
+        + "span.classList.toggle(\"open\");return;}"
+        + "ul=document.createElement(\"ul\");li.appendChild(ul);"
+        + "span.classList.add(\"open\");"
+        + "load(id,function(data){render(ul,data.c,0);});}\n"
+        + "window.onload=function(){"
+        + "render(document.getElementById(\"tree\"),roots,0);};\n"
+        + "</script></head>\n"
+        + "<body><ul id=\"tree\"></ul></body></html>\n");
+    } finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * Quotes a String for JSON. Non-ASCII characters and "/" are escaped so the
+   * result is safe in any encoding and inside a script element.
+   * @param string
    * @return
    */
-  private String tabs() {
-    String tabs = "";
-    for(int i = 1; i < level; i++) {
-      tabs += INDENT;
+  static String quote(String string) {
+    StringBuilder sb = new StringBuilder(string.length() + 2);
+    sb.append('"');
+    for(int i = 0; i < string.length(); i++) {
+      char c = string.charAt(i);
+      if(c == '"' || c == '\\' || c == '/') {
+        sb.append('\\').append(c);
+      } else if(c < 0x20 || c > 0x7e) {
+        sb.append(String.format("\\u%04x", (int)c));
+      } else {
+        sb.append(c);
+      }
     }
-    return tabs;
+    sb.append('"');
+    return sb.toString();
+  }
+
+  /**
+   * Gets the order in which to list directories from the options.
+   * @return
+   */
+  private DirectoryLister.Order getOrder() {
+    if(directoriesFirst) return DirectoryLister.Order.DIRECTORIES_FIRST;
+    if(filesFirst) return DirectoryLister.Order.FILES_FIRST;
+    return DirectoryLister.Order.NAME;
   }
 
   /* (non-Javadoc)
@@ -132,6 +609,9 @@ public class PrintTree extends ProcessTree
         case 'h':
           usage();
           System.exit(0);
+        case 'c':
+          connectors = true;
+          break;
         case 'd':
           directoriesFirst = true;
           break;
@@ -141,6 +621,12 @@ public class PrintTree extends ProcessTree
         case 'l':
           maxDepth = Integer.parseInt(args[++i]);
           break;
+        case 'x':
+          exportDir = new File(args[++i]);
+          break;
+        case 'm':
+          maxBufferedChars = Long.parseLong(args[++i]) * 1024L * 1024L / 2;
+          break;
         case 'o':
           directoriesOnly = true;
           break;
@@ -177,12 +663,18 @@ public class PrintTree extends ProcessTree
       "\n" +
       "  Options:\n" +
       "    -h        Help (This message)\n" +
+      "    -c        Use line-drawing connectors instead of \"" + INDENT + "\"\n" +
       "    -d        Directories before files\n" +
       "    -f        Files before directories\n" +
       "              (Default is alphabetical)\n" +
       "    -l  int   Maximum depth to check (Default is " + MAX_DEPTH + ")\n" +
+      "    -m  int   MB of output to hold in memory for -s before using\n" +
+      "              a temporary file (Default is " + MAX_BUFFERED_MB + ")\n" +
       "    -o        Directories only\n" +
-      "    -s        Print sizes\n" +
+      "    -s        Print sizes, with the total size and number of\n" +
+      "              files below each directory\n" +
+      "    -x  dir   Export to dir as lazily-loaded shards with an\n" +
+      "              HTML viewer (dir/index.html)\n" +
       ""
     );
   }
@@ -1,14 +1,15 @@
 package processtree;
 
 import java.io.File;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.Hashtable;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * ProcessDAZContent
@@ -20,6 +21,23 @@ import java.util.ListIterator;
  *         which also exist in the base directory. It is expected to be used to
  *         leave only content that is not found in the base directory.<br>
  * <br>
+ *         The base directory is listed once, in parallel, before the given
+ *         directory is processed, so checking whether an item is in it does
+ *         not need the file system. There can be several base directories.
+ *         They are merged into one index that records which of them hold each
+ *         item, and each delete is counted for the first one that does.<br>
+ * <br>
+ *         If deletes are verified, a file is only deleted if the file in the
+ *         base directory also has the same contents. The sizes are compared
+ *         first, and the digests of the files in each directory that have the
+ *         same size are computed in parallel and may be cached between runs.
+ *         Files with the same path but different contents are reported.<br>
+ * <br>
+ *         The deletes are done by a DeleteEngine on several threads while the
+ *         directory is walked. Items can be moved to a new subdirectory of a
+ *         quarantine directory instead, and moved back later with the journal
+ *         kept there.<br>
+ * <br>
  * 
  */
 public class ProcessDAZContent extends ProcessTree
@@ -49,16 +67,42 @@ public class ProcessDAZContent extends ProcessTree
     private boolean printDirsDeleted = PRINT_DIRS_DELETED;
     private boolean printFilesDeleted = PRINT_FILES_DELETED;
 
-    /** The directory to compare against. */
-    private String baseDir = null;
+    /** The directories to compare against. */
+    private List<String> baseDirs = new ArrayList<String>();
     /** Whether the base directory is specified. */
     protected boolean baseDirSpecified = false;
     /** The length of the directory name. */
     private int dirNameLength = Integer.MAX_VALUE;
-    /** Hashtable to hold the number of items deleted for each directory */
-    private Hashtable<String, Integer> deleteTable = null;
-    /** Comparator to use for sorting files */
-    private Comparator<File> fileComparator = null;
+    /** The items in the base directory. */
+    private PathIndex baseIndex = null;
+    /** Whether to keep only a Bloom filter of the base directory. */
+    private static final boolean USE_BLOOM = false;
+    private boolean useBloom = USE_BLOOM;
+    /** The number of threads used to list the base directory. */
+    private int nThreads = Runtime.getRuntime().availableProcessors();
+    /** Whether to check the contents are the same before deleting files. */
+    private static final boolean VERIFY = false;
+    private boolean verify = VERIFY;
+    /** The file for the digest cache, or null. */
+    private String digestFileName = null;
+    /** The digest cache. */
+    private DigestCache digestCache = null;
+    /** The threads used to compute digests. */
+    private ExecutorService hashPool = null;
+    /**
+     * The number of items left in each directory being processed, indexed by
+     * level. Incremented as each item is listed and decremented as each item
+     * is deleted.
+     */
+    private int[] nItemsLeft = new int[16];
+    /** The engine that does the deletes, or null for a dry run. */
+    private DeleteEngine deleteEngine = null;
+    /** The delete groups of the directories being processed by level. */
+    private DeleteEngine.Group[] groups = new DeleteEngine.Group[16];
+    /** The directory to move items to instead of deleting them, or null. */
+    private String quarantineDir = null;
+    /** Whether to move the items in the quarantine directory back. */
+    private boolean rollback = false;
 
     /** Number of directories processed */
     private int nDirsProcessed = 0;
@@ -68,19 +112,18 @@ public class ProcessDAZContent extends ProcessTree
     private int nFilesProcessed = 0;
     /** Number of files deleted */
     private int nDirsDeleted = 0;
+    /** Number of files in the base directory with different contents */
+    private int nFilesDiffer = 0;
+    /** Number of directories deleted for each base directory */
+    private int[] nBaseDirsDeleted;
+    /** Number of files deleted for each base directory */
+    private int[] nBaseFilesDeleted;
 
     /**
      * Constructor.
      */
     public ProcessDAZContent() {
         super();
-        fileComparator = new Comparator<File>() {
-            public int compare(File fa, File fb) {
-                if(fa.isDirectory() && !fb.isDirectory()) return -1;
-                if(fb.isDirectory() && !fa.isDirectory()) return 1;
-                return (fa.getName().compareTo(fb.getName()));
-            }
-        };
     }
 
     /*
@@ -89,6 +132,59 @@ public class ProcessDAZContent extends ProcessTree
      * @see processtree.ProcessTree#processBefore(java.lang.Object)
      */
     public void processBefore(Object obj) {
+        long start = System.currentTimeMillis();
+        List<File> baseFiles = new ArrayList<File>();
+        for(String baseDir : baseDirs) {
+            baseFiles.add(new File(baseDir));
+        }
+        baseIndex = new PathIndex(baseFiles, useBloom);
+        baseIndex.load(nThreads);
+        nBaseDirsDeleted = new int[baseDirs.size()];
+        nBaseFilesDeleted = new int[baseDirs.size()];
+        System.out.printf("Indexed %d items in %s in %.1f sec" + LS + LS,
+            baseIndex.getItemCount(),
+            baseDirs.size() == 1 ? "the base directory" : baseDirs.size()
+                + " base directories",
+            (System.currentTimeMillis() - start) / 1000.);
+        if(verify) {
+            digestCache = new DigestCache();
+            if(digestFileName != null) {
+                try {
+                    digestCache.load(digestFileName);
+                } catch(Exception ex) {
+                    excMsg("Error loading " + digestFileName, ex);
+                }
+            }
+            hashPool = Executors.newFixedThreadPool(nThreads);
+        }
+        if(!dryRun) {
+            try {
+                deleteEngine = new DeleteEngine(nThreads, new File(
+                    (String)obj), quarantineDir == null ? null : new File(
+                    quarantineDir));
+                groups[0] = deleteEngine.getRoot();
+            } catch(Exception ex) {
+                excMsg("Error starting deletes", ex);
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Moves the items in a run's quarantine directory back to the directory
+     * they came from using the journal there.
+     */
+    void rollback() {
+        try {
+            int nFailed = DeleteEngine.rollback(dirList.isEmpty() ? null
+                : new File(dirList.firstElement()), new File(quarantineDir));
+            if(nFailed > 0) {
+                System.out.println("Items that could not be restored: "
+                    + nFailed);
+            }
+        } catch(Exception ex) {
+            excMsg("Error restoring from " + quarantineDir, ex);
+        }
     }
 
     /*
@@ -105,11 +201,53 @@ public class ProcessDAZContent extends ProcessTree
      * @see processtree.ProcessTree#processEnd(java.lang.Object)
      */
     public void processEnd(Object obj) {
+        int nFailed = 0;
+        if(deleteEngine != null) {
+            try {
+                deleteEngine.finish();
+            } catch(Exception ex) {
+                excMsg("Error finishing deletes", ex);
+            }
+            nFailed = deleteEngine.getFailedCount();
+        }
         System.out.println("\nDirectories: Processed=" + nDirsProcessed
             + " Deleted=" + nDirsDeleted + " Retained="
             + (nDirsProcessed - nDirsDeleted));
         System.out.println("Files: Processed=" + nFilesProcessed + " Deleted="
             + nFilesDeleted + " Retained=" + (nFilesProcessed - nFilesDeleted));
+        if(baseDirs.size() > 1) {
+            for(int i = 0; i < baseDirs.size(); i++) {
+                System.out.println("Base " + (i + 1) + ": Items="
+                    + baseIndex.getItemCount(i) + " Directories deleted="
+                    + nBaseDirsDeleted[i] + " Files deleted="
+                    + nBaseFilesDeleted[i] + " " + baseDirs.get(i));
+            }
+        }
+        if(useBloom) {
+            System.out.println("Bloom filter: Checked="
+                + baseIndex.getMaybeCount() + " Not found="
+                + baseIndex.getFalsePositiveCount());
+        }
+        if(verify) {
+            hashPool.shutdown();
+            System.out.println("Files with different contents: " + nFilesDiffer);
+            System.out.println("Digests: Cached=" + digestCache.getHits()
+                + " Computed=" + digestCache.getComputed());
+            if(digestFileName != null) {
+                try {
+                    digestCache.save(digestFileName);
+                } catch(Exception ex) {
+                    excMsg("Error saving " + digestFileName, ex);
+                }
+            }
+        }
+        if(nFailed > 0) {
+            System.out.println("Deletes that failed: " + nFailed);
+        }
+        if(deleteEngine != null && deleteEngine.getQuarantine() != null) {
+            System.out.println("Quarantined in "
+                + deleteEngine.getQuarantine().getPath());
+        }
     }
 
     /*
@@ -125,24 +263,47 @@ public class ProcessDAZContent extends ProcessTree
             }
             level++;
             if(item.isDirectory()) {
-                File dirList[] = item.listFiles();
-                // Add this directory to the deleteTable
-                deleteTable.put(item.getPath(), dirList.length);
-                // DEBUG
-                // System.out.println("dirList.length=" + dirList.length +
-                // " for "
-                // + item.getPath());
-                // Convert it to a list so we can sort it
-                List<File> list = Arrays.asList(dirList);
-                Collections.sort(list, fileComparator);
-                ListIterator<File> iter = list.listIterator();
-                while(iter.hasNext()) {
-                    File file1 = (File)iter.next();
-                    process((Object)file1);
+                // The count is incremented as each item is listed
+                if(level >= nItemsLeft.length) {
+                    int[] newItemsLeft = new int[2 * nItemsLeft.length];
+                    System.arraycopy(nItemsLeft, 0, newItemsLeft, 0,
+                        nItemsLeft.length);
+                    nItemsLeft = newItemsLeft;
+                    DeleteEngine.Group[] newGroups = new DeleteEngine.Group[nItemsLeft.length];
+                    System.arraycopy(groups, 0, newGroups, 0, groups.length);
+                    groups = newGroups;
+                }
+                nItemsLeft[level] = 0;
+                if(deleteEngine != null) {
+                    groups[level] = deleteEngine.newGroup(groups[level - 1]);
+                }
+                DirectoryLister lister = new DirectoryLister(item,
+                    DirectoryLister.Order.DIRECTORIES_FIRST);
+                // When verifying, the files are done together after the
+                // directories
+                List<File> files = verify ? new ArrayList<File>() : null;
+                try {
+                    for(File file1 : lister) {
+                        nItemsLeft[level]++;
+                        if(files != null && !file1.isDirectory()) {
+                            files.add(file1);
+                        } else {
+                            process((Object)file1);
+                        }
+                    }
+                } finally {
+                    lister.close();
+                }
+                if(files != null && !files.isEmpty()) {
+                    // Process them at the same level as other items
+                    level++;
+                    try {
+                        processFiles(files);
+                    } finally {
+                        level--;
+                    }
                 }
                 processDir(item);
-                // Remove this item from the deleteList
-                deleteTable.remove(item.getPath());
             } else {
                 processFile(item);
             }
@@ -151,41 +312,139 @@ public class ProcessDAZContent extends ProcessTree
                 + ex.getMessage());
             System.err.println();
         } finally {
+            // Let the directories above be deleted even if this failed
+            if(deleteEngine != null && item != null && groups[level] != null) {
+                deleteEngine.release(groups[level]);
+                groups[level] = null;
+            }
             level--;
         }
     }
 
+    /**
+     * Method to process the files in a directory when verifying. The digests
+     * of the files that are in a base directory with the same size are
+     * computed in parallel.
+     * 
+     * @param files
+     */
+    void processFiles(List<File> files) {
+        int n = files.size();
+        long[] same = new long[n];
+        List<Future<String>> digests = new ArrayList<Future<String>>();
+        // The digests of the files in each base directory, by base
+        List<List<Future<String>>> baseDigests = new ArrayList<List<Future<String>>>();
+        for(int i = 0; i < n; i++) {
+            digests.add(null);
+            baseDigests.add(null);
+            File file = files.get(i);
+            String relative = file.getPath().substring(dirNameLength);
+            long tops = baseIndex.getTops(relative);
+            if(tops == 0) {
+                continue;
+            }
+            try {
+                BasicFileAttributes attrs = DigestCache.getAttributes(file);
+                List<Future<String>> baseDigests1 = new ArrayList<Future<String>>();
+                for(int base = 0; base < baseDirs.size(); base++) {
+                    baseDigests1.add(null);
+                    if((tops & (1L << base)) == 0) {
+                        continue;
+                    }
+                    File baseFile = new File(baseDirs.get(base), relative);
+                    BasicFileAttributes baseAttrs = DigestCache
+                        .getAttributes(baseFile);
+                    if(baseAttrs.isDirectory()
+                        || attrs.size() != baseAttrs.size()) {
+                        continue;
+                    }
+                    baseDigests1.set(base, startDigest(baseFile, baseAttrs));
+                    if(digests.get(i) == null) {
+                        digests.set(i, startDigest(file, attrs));
+                    }
+                }
+                baseDigests.set(i, baseDigests1);
+            } catch(Exception ex) {
+                excMsg("Error checking " + file.getPath(), ex);
+            }
+        }
+        for(int i = 0; i < n; i++) {
+            Future<String> digest = digests.get(i);
+            if(digest == null) {
+                continue;
+            }
+            try {
+                List<Future<String>> baseDigests1 = baseDigests.get(i);
+                for(int base = 0; base < baseDigests1.size(); base++) {
+                    Future<String> baseDigest = baseDigests1.get(base);
+                    if(baseDigest != null
+                        && digest.get().equals(baseDigest.get())) {
+                        same[i] |= 1L << base;
+                    }
+                }
+            } catch(Exception ex) {
+                excMsg("Error computing digest for " + files.get(i).getPath(),
+                    ex);
+            }
+        }
+        for(int i = 0; i < n; i++) {
+            processFile(files.get(i), same[i]);
+        }
+    }
+
+    /**
+     * Starts computing the digest of a file on the hash threads.
+     * 
+     * @param file
+     * @param attrs
+     * @return
+     */
+    private Future<String> startDigest(final File file,
+        final BasicFileAttributes attrs) {
+        return hashPool.submit(new Callable<String>() {
+            public String call() throws Exception {
+                return digestCache.getDigest(file, attrs);
+            }
+        });
+    }
+
     /**
      * Method to process a file.
      * 
      * @param file
      */
     void processFile(File file) {
+        processFile(file, -1L);
+    }
+
+    /**
+     * Method to process a file.
+     * 
+     * @param file
+     * @param same A bit mask of the base directories whose file is known to
+     *            have the same contents, with bit i for the i'th one. Only
+     *            used for the ones that have the file.
+     */
+    void processFile(File file, long same) {
         nFilesProcessed++;
         try {
             String fileName = file.getPath();
-            File baseFile = new File(baseDir, fileName.substring(dirNameLength,
-                fileName.length()));
-            if(baseFile.exists()) {
-                boolean deleted = false;
-                if(dryRun) {
-                    deleted = true;
-                } else {
-                    deleted = file.delete();
+            long tops = baseIndex.getTops(fileName.substring(dirNameLength));
+            if(tops != 0) {
+                if((tops & same) == 0) {
+                    nFilesDiffer++;
+                    System.out.println("Differs F " + file.getPath());
+                    return;
                 }
-                if(!deleted) {
-                    System.out.println("Failed to delete " + file.getPath());
-                } else {
-                    nFilesDeleted++;
-                    String parentPath = file.getParentFile().getPath();
-                    int nDeleted = deleteTable.get(parentPath);
-                    deleteTable.put(parentPath, nDeleted - 1);
-                    // DEBUG
-                    // System.out.println("nDeleted=" + nDeleted + " for "
-                    // + parentPath);
-                    if(printFilesDeleted && nItemsPrinted < MAX_PRINT_ITEMS) {
-                        System.out.println("Deleted F " + file.getPath());
-                    }
+                nBaseFilesDeleted[Long.numberOfTrailingZeros(tops & same)]++;
+                // Failures are reported by the DeleteEngine
+                if(!dryRun) {
+                    deleteEngine.deleteFile(file, groups[level - 1]);
+                }
+                nFilesDeleted++;
+                nItemsLeft[level - 1]--;
+                if(printFilesDeleted && nItemsPrinted < MAX_PRINT_ITEMS) {
+                    System.out.println("Deleted F " + file.getPath());
                 }
             } else if(printFilesRetained) {
                 System.out.println("Retained F " + file.getPath());
@@ -204,44 +463,21 @@ public class ProcessDAZContent extends ProcessTree
         nDirsProcessed++;
         try {
             String dirName = dir.getPath();
-            File dirList[] = dir.listFiles();
-            int nFilesLeft = 0;
-            if(dryRun) {
-                nFilesLeft = deleteTable.get(dirName);
-                // DEBUG
-                // if(nFilesLeft < 0) {
-                // System.out.println("*** Got unexpected nFilesLeft = "
-                // + nFilesLeft + " for " + dirName);
-                // } else {
-                // System.out.println("nFilesLeft=" + nFilesLeft + " for "
-                // + dirName);
-                // }
-            } else {
-                nFilesLeft = dirList.length;
-            }
+            // The items that were listed and not deleted. If something else
+            // was added, the delete will fail.
+            int nFilesLeft = nItemsLeft[level];
             if(nFilesLeft == 0) {
-                File baseFile = new File(baseDir, dirName.substring(
-                    dirNameLength, dirName.length()));
-                if(baseFile.exists()) {
-                    boolean deleted = false;
-                    if(dryRun) {
-                        deleted = true;
-                    } else {
-                        deleted = dir.delete();
+                long tops = baseIndex.getTops(dirName.substring(dirNameLength));
+                if(tops != 0) {
+                    nBaseDirsDeleted[Long.numberOfTrailingZeros(tops)]++;
+                    // It is deleted after everything in it has been
+                    if(!dryRun) {
+                        deleteEngine.deleteDir(dir, groups[level]);
                     }
-                    if(!deleted) {
-                        System.out.println("Failed to delete " + dir.getPath());
-                    } else {
-                        nDirsDeleted++;
-                        String parentPath = dir.getParentFile().getPath();
-                        int nDeleted = deleteTable.get(parentPath);
-                        deleteTable.put(parentPath, nDeleted - 1);
-                        // DEBUG
-                        // System.out.println("nDeleted=" + nDeleted + " for "
-                        // + parentPath);
-                        if(printDirsDeleted && nItemsPrinted < MAX_PRINT_ITEMS) {
-                            System.out.println("Deleted D " + dir.getPath());
-                        }
+                    nDirsDeleted++;
+                    nItemsLeft[level - 1]--;
+                    if(printDirsDeleted && nItemsPrinted < MAX_PRINT_ITEMS) {
+                        System.out.println("Deleted D " + dir.getPath());
                     }
                 } else if(printDirsRetained) {
                     System.out.println("Retained D " + dir.getPath() + " ["
@@ -282,9 +518,18 @@ public class ProcessDAZContent extends ProcessTree
                 case 'd':
                     dryRun = false;
                     break;
+                case 'b':
+                    useBloom = false;
+                    break;
+                case 'c':
+                    digestFileName = args[++i];
+                    break;
                 case 'h':
                     usage();
                     System.exit(0);
+                case 'j':
+                    nThreads = Integer.parseInt(args[++i]);
+                    break;
                 case 'p':
                     if(args[i].equals("-pfr")) {
                         printFilesRetained = false;
@@ -296,6 +541,16 @@ public class ProcessDAZContent extends ProcessTree
                         printDirsDeleted = false;
                     }
                     break;
+                case 'q':
+                    quarantineDir = args[++i];
+                    break;
+                case 'u':
+                    quarantineDir = args[++i];
+                    rollback = true;
+                    break;
+                case 'v':
+                    verify = false;
+                    break;
                 default:
                     System.err.println("\n\nInvalid option: " + args[i]);
                     usage();
@@ -303,6 +558,9 @@ public class ProcessDAZContent extends ProcessTree
                 }
             } else if(args[i].startsWith("+")) {
                 switch(args[i].charAt(1)) {
+                case 'b':
+                    useBloom = true;
+                    break;
                 case 'd':
                     dryRun = true;
                     break;
@@ -320,6 +578,9 @@ public class ProcessDAZContent extends ProcessTree
                         printDirsDeleted = true;
                     }
                     break;
+                case 'v':
+                    verify = true;
+                    break;
                 default:
                     System.err.println("\n\nInvalid option: " + args[i]);
                     usage();
@@ -330,35 +591,66 @@ public class ProcessDAZContent extends ProcessTree
                     dirList.add(args[i]);
                     dirNameLength = args[i].length();
                     dirSpecified = true;
-                } else if(!baseDirSpecified) {
-                    baseDir = args[i];
+                } else {
+                    baseDirs.add(args[i]);
                     baseDirSpecified = true;
                 }
             }
         }
-        if(!baseDirSpecified) {
+        if(!baseDirSpecified && !rollback) {
             System.out.println("No base directory specified");
             usage();
             return false;
         }
-        if(!dirSpecified) {
+        if(baseDirs.size() > PathIndex.MAX_TOPS) {
+            System.out.println("There can be at most " + PathIndex.MAX_TOPS
+                + " base directories");
+            return false;
+        }
+        if(!dirSpecified && !rollback) {
             System.out.println("No directory specified");
             usage();
             return false;
         }
 
+        if(quarantineDir != null && dirSpecified) {
+            // It must not be walked or be on another file system
+            try {
+                String dirPath = new File(dirList.firstElement())
+                    .getCanonicalPath() + File.separator;
+                String quarantinePath = new File(quarantineDir)
+                    .getCanonicalPath() + File.separator;
+                if(quarantinePath.startsWith(dirPath)) {
+                    System.out.println("The quarantine directory must not be"
+                        + " in the directory to process");
+                    return false;
+                }
+            } catch(Exception ex) {
+                excMsg("Error checking " + quarantineDir, ex);
+                return false;
+            }
+        }
+
         System.out.println("ProcessDAZContent");
+        if(rollback) {
+            System.out.println("Rollback from: " + quarantineDir);
+            System.out.println("Directory to Restore: "
+                + (dirSpecified ? dirList.firstElement() : "From the journal"));
+            System.out.println();
+            return true;
+        }
         if(dryRun) {
             System.out.println("Dry Run");
         }
-        System.out.println("Base directory: " + baseDir);
+        for(String baseDir : baseDirs) {
+            System.out.println("Base directory: " + baseDir);
+        }
         System.out.println("Directory to Process: " + dirList.firstElement());
+        if(quarantineDir != null) {
+            System.out.println("Quarantine directory: " + quarantineDir);
+        }
         System.out.println();
 
-        // Create a Hashtable to hold the number of items deleted for each
-        // directory
-        deleteTable = new Hashtable<String, Integer>();
-
         return true;
     }
 
@@ -384,11 +676,22 @@ public class ProcessDAZContent extends ProcessTree
             .println("\nProcessDAZContent: Compares a given directory of DAZ content\n"
                 + " to a base directory and removes files and directories from\n"
                 + " the given directory which also exist in the base directory.\n"
-                + "Usage: ProcessDAZContent [Options] processDir baseDir\n"
-                + "  Removes items in processDir that exist in baseDir\n"
+                + "Usage: ProcessDAZContent [Options] processDir baseDir"
+                + " [baseDir...]\n"
+                + "  Removes items in processDir that exist in any baseDir\n"
                 + "    -h      Help (This message)\n\n"
                 + "    +d      Dry run (No items deleted)\n"
                 + "    -d      Not a dry run (Items will be deleted)\n\n"
+                + "    +b      Keep only a Bloom filter of the base directory\n"
+                + "    -b      Keep the names in the base directory\n"
+                + "    -j n    Threads used to list the base directory\n\n"
+                + "    +v      Only delete files with the same contents\n"
+                + "    -v      Delete files with the same path\n"
+                + "    -c file Cache file for content digests\n\n"
+                + "    -q dir  Move items to a new subdirectory of dir, on the\n"
+                + "            same file system, instead of deleting them\n"
+                + "    -u dir  Move the items in a subdirectory made by -q\n"
+                + "            back (No baseDir, processDir optional)\n\n"
                 + "    +pfr    Print files retained\n"
                 + "    +pdr    Print directories retained\n"
                 + "    +pfd    Print files deleted\n"
@@ -407,7 +710,11 @@ public class ProcessDAZContent extends ProcessTree
         if(!app.parseCommand(args)) {
             System.exit(1);
         }
-        app.processDirectoryList();
+        if(app.rollback) {
+            app.rollback();
+        } else {
+            app.processDirectoryList();
+        }
         System.out.println();
         System.out.println("All done");
     }
@@ -8,14 +8,16 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * ProcessLicense
@@ -58,6 +60,14 @@ import java.util.ListIterator;
  *         directories. Use PROJECT_LIMIT for projects.<br>
  * <br>
  * 
+ *         When DO_MATCH is true, so there are no prompts, the projects and
+ *         the directories in them are processed in parallel using nThreads
+ *         threads. The messages for each project are collected and printed
+ *         together, in the same order as when using one thread. The file
+ *         limits are then only approximate, and the count printed with each
+ *         file may not be in order.<br>
+ * <br>
+ * 
  *         LICENSE files:<br>
  * <br>
  * 
@@ -101,11 +111,17 @@ public class ProcessLicense extends ProcessTree
     private static final boolean DO_MATCH = true;
     // Number of preview lines to print if there is a prompt
     private static final int N_PRINT_LINES = 8;
-    // Set to check line endings. It is probably not necessary to check line
-    // endings, as processed files will have the line ending used by println.
-    // The
-    // code may not work if this is false, but it could be fixed up.
+    // Number of threads to use in JAVA mode. Use 1 to process one file at a
+    // time.
+    private static final int N_THREADS = Runtime.getRuntime()
+        .availableProcessors();
+    // Set to check line endings. The new license lines are written with the
+    // line ending the file already uses. If this is false, or the endings are
+    // mixed, they are written with the system line separator.
     private static final boolean CHECK_CRLF = true;
+    // Set to force rewritten files and their directories to disk. The
+    // directories are synced in batches.
+    private static final boolean SYNC = false;
     // List of binary file extensions
     public String[] binaryExtensions = {".jar", ".class", ".zip", ".gz",
         ".exe", ".dll", ".so", ".ico"};
@@ -150,6 +166,12 @@ public class ProcessLicense extends ProcessTree
     private static final String newDomainName = "org.scatteringsw.xrays";
     private static final String[] oldDirs = oldDomainName.split("\\.");
     private static final String[] newDirs = newDomainName.split("\\.");
+    // The names to change in the files. More than one can be changed at
+    // once. Only the first is used for renaming projects and directories.
+    private static final String[] oldDomainNames = {oldDomainName};
+    private static final String[] newDomainNames = {newDomainName};
+    private static final PatternReplacer domainReplacer = new PatternReplacer(
+        oldDomainNames, newDomainNames);
     private final boolean CHECK_ALL_PROJECTS_FOR_DOMAIN_REFERENCES = true;
     // Use this to repair clobbered binary files
     private final boolean FIX_BINARY = false;
@@ -170,24 +192,34 @@ public class ProcessLicense extends ProcessTree
     private Mode mode = Mode.JAVA;
 
     // Global variables (no configuration involved)
-    private Comparator<File> fileComparator = null;
-    private boolean abort = false;
+    private volatile boolean abort = false;
 
     public static final int LF_MASK = 1;
     public static final int CR_MASK = 2;
     public static final int MIXED_CRLF_MASK = 4;
 
     private int nProjects = 0;
-    private int nProcessed = 0;
-    private int nMatch = 0;
-    private int nFail = 0;
-    private int nConv = 0;
-    private int nCR = 0;
-    private int nLF = 0;
-    private int nCRLF = 0;
-    private int nMixed = 0;
+    // These are changed from several threads in JAVA mode
+    private LongAdder nProcessed = new LongAdder();
+    private LongAdder nMatch = new LongAdder();
+    private LongAdder nFail = new LongAdder();
+    private LongAdder nConv = new LongAdder();
+    private LongAdder nCR = new LongAdder();
+    private LongAdder nLF = new LongAdder();
+    private LongAdder nCRLF = new LongAdder();
+    private LongAdder nMixed = new LongAdder();
     private int nQualifying = 0;
 
+    private int nThreads = N_THREADS;
+    // Replaces the files that are rewritten
+    private FileCommitter committer = new FileCommitter(SYNC);
+    // The threads for processing in parallel or null
+    private ForkJoinPool pool = null;
+    // The tasks for the projects being processed in parallel, in order
+    private LinkedList<ForkJoinTask<String>> projectTasks = new LinkedList<ForkJoinTask<String>>();
+    // Where messages from the current thread go if not to System.out
+    private ThreadLocal<StringBuilder> log = new ThreadLocal<StringBuilder>();
+
     private String[] skippedProjects = null;
     private String[] licenseLines = null;
     private String[] licenseTextLines = null;
@@ -200,13 +232,6 @@ public class ProcessLicense extends ProcessTree
     public ProcessLicense() {
         super();
         dirList.add(WORK_DIR);
-        fileComparator = new Comparator<File>() {
-            public int compare(File fa, File fb) {
-                if(fa.isDirectory() && !fb.isDirectory()) return -1;
-                if(fb.isDirectory() && !fa.isDirectory()) return 1;
-                return (fa.getName().compareTo(fb.getName()));
-            }
-        };
 
         // Initialize
         try {
@@ -263,6 +288,10 @@ public class ProcessLicense extends ProcessTree
      * @see processtree.ProcessTree#processBefore(java.lang.Object)
      */
     public void processBefore(Object obj) {
+        // Prompts need to be done one at a time
+        if(mode == Mode.JAVA && DO_MATCH && nThreads > 1) {
+            pool = new ForkJoinPool(nThreads);
+        }
     }
 
     /*
@@ -279,11 +308,18 @@ public class ProcessLicense extends ProcessTree
      * @see processtree.ProcessTree#processEnd(java.lang.Object)
      */
     public void processEnd(Object obj) {
+        if(pool != null) {
+            printProjects(true);
+            pool.shutdown();
+        }
+        committer.sync();
+        exitIfAborted();
         if(mode == Mode.JAVA) {
             System.out
                 .printf(
                     "\nnConv=%d nMatch=%d nFail=%d nCRLF=%d nLF=%d nCR=%d nMixed=%d\n",
-                    nConv, nMatch, nFail, nCRLF, nLF, nCR, nMixed);
+                    nConv.sum(), nMatch.sum(), nFail.sum(), nCRLF.sum(),
+                    nLF.sum(), nCR.sum(), nMixed.sum());
         } else if(mode == Mode.DOMAIN) {
             System.out.printf("\nnProjects=%d nQualifying=%d\n", nProjects,
                 nQualifying);
@@ -309,12 +345,24 @@ public class ProcessLicense extends ProcessTree
                     if(nQualifying >= QUALIFYING_LIMIT) return;
                     if(isSkippedProject(item)) {
                         if(PRINT_SKIPPED_PROJECT) {
-                            System.out.println("Project: " + item.getName()
-                                + " [Skipped]" + LS);
+                            printInOrder("Project: " + item.getName()
+                                + " [Skipped]" + LS + LS);
                         }
                         return;
                     }
                     nProjects++;
+                    if(pool != null) {
+                        // The messages are printed when it is done
+                        DirectoryTask task = new DirectoryTask(item);
+                        if(PRINT_PROJECT) {
+                            task.header = "Project: " + item.getName() + LS
+                                + LS;
+                        }
+                        projectTasks.add(pool.submit(task));
+                        printProjects(false);
+                        exitIfAborted();
+                        return;
+                    }
                     if(PRINT_PROJECT) {
                         System.out.println("Project: " + item.getName() + LS);
                     }
@@ -337,19 +385,31 @@ public class ProcessLicense extends ProcessTree
                         }
                     }
                 }
-                File dirList[] = item.listFiles();
-                // Convert it to a list so we can sort it
-                List<File> list = Arrays.asList(dirList);
-                Collections.sort(list, fileComparator);
-                ListIterator<File> iter = list.listIterator();
-                while(iter.hasNext()) {
-                    File file1 = (File)iter.next();
-                    process((Object)file1);
+                DirectoryLister lister = new DirectoryLister(item,
+                    DirectoryLister.Order.DIRECTORIES_FIRST);
+                try {
+                    for(File file1 : lister) {
+                        process((Object)file1);
+                    }
+                } finally {
+                    lister.close();
                 }
                 if(level == 2 && mode == Mode.DOMAIN) {
                     processDomain(item);
                     System.out.println();
                 }
+            } else if(pool != null) {
+                // A file beside the projects, printed after the messages for
+                // the projects before it
+                StringBuilder messages = new StringBuilder();
+                log.set(messages);
+                try {
+                    processFile(item);
+                } finally {
+                    log.remove();
+                    printInOrder(messages.toString());
+                }
+                exitIfAborted();
             } else {
                 processFile(item);
             }
@@ -362,15 +422,142 @@ public class ProcessLicense extends ProcessTree
         }
     }
 
+    /**
+     * DirectoryTask Task to process a directory in parallel. Forks a task for
+     * each subdirectory and returns the messages for the directory.
+     * 
+     * @author Kenneth Evans, Jr.
+     */
+    class DirectoryTask extends RecursiveTask<String>
+    {
+        private static final long serialVersionUID = 1L;
+        private File dir;
+        // Printed before the messages
+        String header = "";
+
+        DirectoryTask(File dir) {
+            this.dir = dir;
+        }
+
+        protected String compute() {
+            List<DirectoryTask> subtasks = new ArrayList<DirectoryTask>();
+            StringBuilder messages = new StringBuilder();
+            DirectoryLister lister = null;
+            try {
+                lister = new DirectoryLister(dir,
+                    DirectoryLister.Order.DIRECTORIES_FIRST);
+                for(File file1 : lister) {
+                    if(abort) break;
+                    if(file1.isDirectory()) {
+                        DirectoryTask task = new DirectoryTask(file1);
+                        task.fork();
+                        subtasks.add(task);
+                    } else {
+                        // Set it each time as a join could run another task
+                        log.set(messages);
+                        try {
+                            processFile(file1);
+                        } catch(Exception ex) {
+                            // Go on to the next file, as when using one
+                            // thread
+                            System.err.println("Processing error:" + LS + ex
+                                + LS + ex.getMessage());
+                            System.err.println();
+                        } finally {
+                            log.remove();
+                        }
+                    }
+                }
+            } catch(Exception ex) {
+                System.err.println("Processing error:" + LS + ex + LS
+                    + ex.getMessage());
+                System.err.println();
+            } finally {
+                if(lister != null) {
+                    lister.close();
+                }
+            }
+            // The subdirectories come first, as when using one thread
+            StringBuilder sb = new StringBuilder(header);
+            for(DirectoryTask task : subtasks) {
+                sb.append(task.join());
+            }
+            sb.append(messages);
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Prints the messages for the projects processed in parallel in the order
+     * they were started.
+     * 
+     * @param wait Whether to wait for them all or only print the ones at the
+     *            start that are done.
+     */
+    void printProjects(boolean wait) {
+        while(!projectTasks.isEmpty()
+            && (wait || projectTasks.getFirst().isDone())) {
+            System.out.print(projectTasks.removeFirst().join());
+        }
+        System.out.flush();
+    }
+
+    /**
+     * Prints a message after the messages for the projects that are still
+     * being processed in parallel, or now if there are none.
+     * 
+     * @param msg
+     */
+    void printInOrder(String msg) {
+        if(projectTasks.isEmpty()) {
+            System.out.print(msg);
+            return;
+        }
+        ForkJoinTask<String> done = ForkJoinTask.adapt(new Runnable() {
+            public void run() {
+            }
+        }, msg);
+        done.complete(msg);
+        projectTasks.add(done);
+        printProjects(false);
+    }
+
+    /**
+     * Exits if processing has been aborted, after printing the messages for
+     * the projects processed in parallel. Must not be called from the tasks.
+     */
+    void exitIfAborted() {
+        if(!abort) return;
+        printProjects(true);
+        committer.sync();
+        System.out.println(LS + "Aborted");
+        System.exit(1);
+    }
+
+    /**
+     * Prints a message to System.out, or to the messages for the current
+     * thread when processing in parallel.
+     * 
+     * @param msg
+     */
+    void print(String msg) {
+        StringBuilder messages = log.get();
+        if(messages == null) {
+            System.out.print(msg);
+        } else {
+            messages.append(msg);
+        }
+    }
+
     /**
      * Method to process a file.
      * 
      * @param file
      */
     void processFile(File file) {
-        if(nProcessed >= PROCESS_LIMIT) return;
-        if(DO_MATCH && nMatch >= MATCH_LIMIT) return;
-        if(!DO_MATCH && nFail >= FAIL_LIMIT) return;
+        if(nProcessed.sum() >= PROCESS_LIMIT) return;
+        if(DO_MATCH && nMatch.sum() >= MATCH_LIMIT) return;
+        if(!DO_MATCH && nFail.sum() >= FAIL_LIMIT) return;
         if(mode == Mode.LICENSE) {
             String name = file.getPath();
             if(name.endsWith("LICENSE")) {
@@ -393,11 +580,11 @@ public class ProcessLicense extends ProcessTree
                 }
             }
         }
-        if(abort) {
-            System.out.println(LS + "Aborted");
-            System.exit(1);
+        // The tasks stop when abort is set and the main thread exits
+        if(log.get() == null) {
+            exitIfAborted();
         }
-        nProcessed++;
+        nProcessed.increment();
     }
 
     /**
@@ -605,62 +792,56 @@ public class ProcessLicense extends ProcessTree
 
         String projectName = file.getPath().substring(PROJECT_INDEX);
 
-        // Get line ending type
-        String type = "";
+        // Read the file once. Everything else uses what was read.
+        byte[] bytes;
+        String[] lines;
         try {
-            type = getLineEndingType(file);
+            bytes = loadFileBytes(file);
+            lines = splitLines(new String(bytes));
         } catch(Exception ex) {
             ex.printStackTrace();
             abort = true;
             return;
         }
 
+        // Get line ending type
+        String type = getLineEndingType(bytes);
+
         // Check for new license
-        boolean match;
-        try {
-            match = checkCurrentJavaLicense(file);
-            if(match) {
-                nConv++;
-                return;
-            }
-        } catch(Exception ex) {
-            ex.printStackTrace();
-            abort = true;
+        boolean match = checkCurrentJavaLicense(lines);
+        if(match) {
+            nConv.increment();
             return;
         }
 
         // Check for old license
-        try {
-            match = checkOldLicense(file);
-            if(match) {
-                nMatch++;
-            } else {
-                nFail++;
-            }
-        } catch(Exception ex) {
-            ex.printStackTrace();
-            abort = true;
-            return;
+        match = checkOldLicense(lines);
+        if(match) {
+            nMatch.increment();
+        } else {
+            nFail.increment();
         }
 
         // Process file
         if(DO_MATCH && match) {
-            System.out.printf("%d %s %s\n", nMatch, projectName, type);
+            print(String.format("%d %s %s\n", nMatch.sum(), projectName,
+                type));
             if(licenseLines == null) {
-                System.out.println("No license file: Cannot continue");
+                print("No license file: Cannot continue" + LS);
                 abort = true;
                 return;
             }
-            replaceLicense(file, type, true, false);
+            replaceLicense(file, bytes, type, true, false);
         }
         if(!DO_MATCH && !match) {
-            System.out.printf("%d %s %s\n", nFail, projectName, type);
+            print(String.format("%d %s %s\n", nFail.sum(), projectName,
+                type));
             if(licenseLines == null) {
-                System.out.println("No license file: Cannot continue");
+                print("No license file: Cannot continue" + LS);
                 abort = true;
                 return;
             }
-            replaceLicense(file, type, false, true);
+            replaceLicense(file, bytes, type, false, true);
         }
     }
 
@@ -726,21 +907,30 @@ public class ProcessLicense extends ProcessTree
      * @throws IOException
      */
     public String getLineEndingType(File file) throws IOException {
+        return getLineEndingType(loadFileBytes(file));
+    }
+
+    /**
+     * Gets the line separator as a String from the contents of a file.
+     * 
+     * @param bytes
+     * @return
+     */
+    public String getLineEndingType(byte[] bytes) {
         String type = "";
-        byte[] bytes = loadFileBytes(file);
         int crlf = checkCRLF(bytes);
         if((crlf & LF_MASK) != 0 && (crlf & CR_MASK) != 0) {
-            nCRLF++;
+            nCRLF.increment();
             type = "CRLF";
         } else if((crlf & LF_MASK) != 0) {
-            nLF++;
+            nLF.increment();
             type = "LF";
         } else if((crlf & CR_MASK) != 0) {
-            nCR++;
+            nCR.increment();
             type = "CR";
         }
         if((crlf & MIXED_CRLF_MASK) != 0) {
-            nMixed++;
+            nMixed.increment();
             type = "Mixed";
         }
         return type;
@@ -778,6 +968,79 @@ public class ProcessLicense extends ProcessTree
         }
     }
 
+    /**
+     * Gets the line separator to write for a line-separator type.
+     * 
+     * @param type The type from getLineEndingType.
+     * @return
+     */
+    public static String getLineSeparator(String type) {
+        if(type.equals("CRLF")) {
+            return "\r\n";
+        } else if(type.equals("LF")) {
+            return "\n";
+        } else if(type.equals("CR")) {
+            return "\r";
+        }
+        return LS;
+    }
+
+    /**
+     * Finds where a line starts in the contents of a file. Lines end the same
+     * way as for splitLines.
+     * 
+     * @param bytes
+     * @param nLines The number of lines before it.
+     * @return The offset, or the length of the contents if there are not that
+     *         many lines.
+     */
+    public static int getLineOffset(byte[] bytes, int nLines) {
+        int i = 0;
+        for(int n = 0; n < nLines && i < bytes.length; i++) {
+            if(bytes[i] == '\n') {
+                n++;
+            } else if(bytes[i] == '\r') {
+                n++;
+                if(i + 1 < bytes.length && bytes[i + 1] == '\n') {
+                    i++;
+                }
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Splits text into lines the same way BufferedReader.readLine does. A
+     * line ends with LF, CR, or CRLF, and there is no empty line after a
+     * final line ending.
+     * 
+     * @param text
+     * @return
+     */
+    public static String[] splitLines(String text) {
+        List<String> lines = new ArrayList<String>();
+        int len = text.length();
+        int start = 0;
+        int i = 0;
+        while(i < len) {
+            char c = text.charAt(i);
+            if(c == '\n' || c == '\r') {
+                lines.add(text.substring(start, i));
+                i++;
+                if(c == '\r' && i < len && text.charAt(i) == '\n') {
+                    i++;
+                }
+                start = i;
+            } else {
+                i++;
+            }
+        }
+        if(start < len) {
+            lines.add(text.substring(start));
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
     /**
      * Returns the contents of a file as a String.
      * 
@@ -831,32 +1094,32 @@ public class ProcessLicense extends ProcessTree
      * @throws IOException
      */
     public boolean checkCurrentJavaLicense(File file) throws IOException {
-        // Check for current text license
-        boolean match = true;
-        BufferedReader in = null;
+        try {
+            return checkCurrentJavaLicense(splitLines(loadFileString(file)));
+        } catch(Exception ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Determines if the lines of a file start with the current Java license.
+     * There must be at least one more line after it.
+     * 
+     * @param lines
+     * @return
+     */
+    public boolean checkCurrentJavaLicense(String[] lines) {
         int nLines = licenseLines.length;
         // If there are no lines in the current text license, return true
-        if(nLines == 0) {
+        if(nLines == 0 || lines.length <= nLines) {
             return false;
         }
-        try {
-            in = new BufferedReader(new FileReader(file));
-            String line;
-            int lineNum = 0;
-            while((line = in.readLine()) != null && lineNum < nLines) {
-                if(!line.equals(licenseLines[lineNum])) {
-                    match = false;
-                    break;
-                }
-                lineNum++;
+        for(int lineNum = 0; lineNum < nLines; lineNum++) {
+            if(!lines[lineNum].equals(licenseLines[lineNum])) {
+                return false;
             }
-            if(line == null) match = false;
-        } catch(Exception ex) {
-            match = false;
-        } finally {
-            if(in != null) in.close();
         }
-        return match;
+        return true;
     }
 
     /**
@@ -867,29 +1130,29 @@ public class ProcessLicense extends ProcessTree
      * @throws IOException
      */
     public boolean checkOldLicense(File file) throws IOException {
-        // Check for old license
-        boolean match = true;
-        BufferedReader in = null;
         try {
-            in = new BufferedReader(new FileReader(file));
-            String line;
-            int lineNum = 0;
-            // Check the first few lines
-            while((line = in.readLine()) != null
-                && lineNum < N_OLD_LICENSE_CHECK_LINES) {
-                if(oldLicenseCheckLines[lineNum] != null
-                    && !line.startsWith(oldLicenseCheckLines[lineNum])) {
-                    match = false;
-                    break;
-                }
-                lineNum++;
-            }
+            return checkOldLicense(splitLines(loadFileString(file)));
         } catch(Exception ex) {
-            match = false;
-        } finally {
-            if(in != null) in.close();
+            return false;
         }
-        return match;
+    }
+
+    /**
+     * Determines if the lines of a file start with the old license.
+     * 
+     * @param lines
+     * @return
+     */
+    public boolean checkOldLicense(String[] lines) {
+        // Check the first few lines
+        int nLines = Math.min(lines.length, N_OLD_LICENSE_CHECK_LINES);
+        for(int lineNum = 0; lineNum < nLines; lineNum++) {
+            if(oldLicenseCheckLines[lineNum] != null
+                && !lines[lineNum].startsWith(oldLicenseCheckLines[lineNum])) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -1005,11 +1268,24 @@ public class ProcessLicense extends ProcessTree
     }
 
     /**
-     * Method that adds or replaces the license in a Java file. The old file is
-     * renamed to a backup, which is deleted on success.
+     * Prints the first nLines of the lines of a file.
+     * 
+     * @param lines
+     * @param nLines
+     */
+    public void printFirstLines(String[] lines, int nLines) {
+        int n = Math.min(nLines, lines.length);
+        for(int lineNum = 0; lineNum < n; lineNum++) {
+            System.out.println(lines[lineNum]);
+        }
+    }
+
+    /**
+     * Method that adds or replaces the license in a Java file. The new file is
+     * written to a temporary file, which then replaces the old one.
      * 
      * @param file
-     * @param type The line-separator type. (Currently not used.)
+     * @param type The line-separator type to use for the license lines.
      * @param replace Whether to replace the old license or to just add the new
      *            license.
      * @param prompt Whether to prompt for changing the license. Typically used
@@ -1017,18 +1293,46 @@ public class ProcessLicense extends ProcessTree
      */
     public void replaceLicense(File file, String type, boolean replace,
         boolean prompt) {
+        byte[] bytes;
+        try {
+            bytes = loadFileBytes(file);
+        } catch(IOException ex) {
+            ex.printStackTrace();
+            abort = true;
+            return;
+        }
+        replaceLicense(file, bytes, type, replace, prompt);
+    }
+
+    /**
+     * Method that adds or replaces the license in a Java file whose contents
+     * have already been read. The new file is written to a temporary file,
+     * which then replaces the old one. Only the license lines are written. The
+     * rest of the file is copied from the old one as it is, keeping its line
+     * endings.
+     * 
+     * @param file
+     * @param bytes The contents of the file.
+     * @param type The line-separator type to use for the license lines.
+     * @param replace Whether to replace the old license or to just add the new
+     *            license.
+     * @param prompt Whether to prompt for changing the license. Typically used
+     *            when replace is false for security.
+     */
+    public void replaceLicense(File file, byte[] bytes, String type,
+        boolean replace, boolean prompt) {
         if(PRINT_REPLACE_LICENCE_FILE) {
             if(replace) {
-                System.out.print("Replace ");
+                print("Replace ");
             } else {
-                System.out.print("Add ");
+                print("Add ");
             }
-            System.out.println(file.getPath());
+            print(file.getPath() + LS);
         }
         if(DRY_RUN) return;
         if(prompt) {
             System.out.print(SEPARATOR);
-            printFirstLines(file, N_PRINT_LINES);
+            printFirstLines(splitLines(new String(bytes)), N_PRINT_LINES);
             System.out.print(SEPARATOR);
             try {
                 System.out.print("Continue [Y/n]? ");
@@ -1050,83 +1354,46 @@ public class ProcessLicense extends ProcessTree
                 return;
             }
         }
-        String inName = file.getPath();
-        String bkpName = inName + ".BKP";
-        File bkpFile = new File(bkpName);
-        Boolean result;
-        if(bkpFile.exists()) {
-            result = bkpFile.delete();
-            if(!result) {
-                System.err.println("Failed to delete existing backup file:"
-                    + LS + bkpFile.getPath());
-                abort = true;
-                return;
-            }
-        }
-        result = file.renameTo(bkpFile);
-        if(!result) {
-            System.err.println("Failed to rename original file:" + LS
-                + bkpFile.getPath());
-            abort = true;
-            return;
-        }
-        // Do it
-        BufferedReader in = null;
-        PrintWriter out = null;
+        // Do it, replacing only the old license lines
+        File tempFile = null;
         try {
-            in = new BufferedReader(new FileReader(bkpFile));
-            out = new PrintWriter(new FileWriter(file));
-            String line;
-            int lineNum = 0;
-            boolean added = false;
-            while((line = in.readLine()) != null) {
-                lineNum++;
-                if(replace && lineNum <= N_OLD_LICENSE_CHECK_LINES) continue;
-                if(!added) {
-                    added = true;
-                    for(int i = 0; i < licenseLines.length; i++) {
-                        out.println(licenseLines[i]);
-                    }
-                    if(!replace && licenseLines.length > 0) {
-                        // Add a blank line unless the new license has no lines
-                        out.println();
-                    }
-                }
-                out.println(line);
+            if(file.length() != bytes.length) {
+                throw new IOException("File changed since it was read");
             }
-            // Cleanup
-            in.close();
-            out.close();
-            in = null;
-            out = null;
-            if(file.exists()) {
-                result = bkpFile.delete();
-                if(!result) {
-                    System.err.println("Failed to delete backup file:" + LS
-                        + bkpFile.getPath());
-                    abort = true;
-                    return;
+            int start = replace ? getLineOffset(bytes,
+                N_OLD_LICENSE_CHECK_LINES) : 0;
+            // The license is only added if there is something after it
+            StringBuilder header = new StringBuilder();
+            if(start < bytes.length) {
+                String sep = getLineSeparator(type);
+                for(int i = 0; i < licenseLines.length; i++) {
+                    header.append(licenseLines[i]).append(sep);
+                }
+                if(!replace && licenseLines.length > 0) {
+                    // Add a blank line unless the new license has no lines
+                    header.append(sep);
                 }
             }
-            System.out.println("  Done");
+            FileRewriter rewriter = new FileRewriter();
+            rewriter.replace(0, start, header.toString().getBytes());
+            tempFile = committer.createTemp(file);
+            rewriter.write(file, tempFile);
+            committer.commit(tempFile, file);
+            tempFile = null;
+            print("  Done" + LS);
         } catch(Exception ex) {
             ex.printStackTrace();
         } finally {
-            try {
-                if(in != null) in.close();
-                if(out != null) out.close();
-            } catch(IOException ex) {
-                ex.printStackTrace();
-                abort = true;
-                return;
-            }
+            committer.discard(tempFile);
         }
     }
 
     /**
-     * Method that replaces the domain string in a file. The old file is renamed
-     * to a backup, which is deleted on success. Only non-binary files that
-     * actually contain the old domain name are processed.
+     * Method that replaces the domain strings in a file. The new file is
+     * written to a temporary file, which then replaces the old one. Only
+     * non-binary files that actually contain an old domain name are
+     * processed. The file is read once and the names are found in one pass
+     * over the bytes, so the line endings are not changed.
      * 
      * @param file
      */
@@ -1134,74 +1401,40 @@ public class ProcessLicense extends ProcessTree
         // Don't do binary files or files that don't contain the old domain
         // string
         if(isBinary(file)) return;
-        if(!hasOldDomainName(file)) return;
+        byte[] bytes;
+        try {
+            bytes = loadFileBytes(file);
+        } catch(IOException ex) {
+            ex.printStackTrace();
+            return;
+        }
+        int[] matches = domainReplacer.findMatches(ByteBuffer.wrap(bytes));
+        if(matches.length == 0) return;
 
         System.out.println(file.getName());
         if(DRY_RUN) return;
 
-        // Create a backup
-        File bkpFile = null;
-        Boolean result;
-        String inName = file.getPath();
-        String bkpName = inName + ".BKP";
-        bkpFile = new File(bkpName);
-        if(bkpFile.exists()) {
-            result = bkpFile.delete();
-            if(!result) {
-                System.err.println("Failed to delete existing backup file:"
-                    + LS + bkpFile.getPath());
-                abort = true;
-                return;
-            }
-        }
-        result = file.renameTo(bkpFile);
-        if(!result) {
-            System.err.println("Failed to rename original file:" + LS
-                + bkpFile.getPath());
-            abort = true;
-            return;
-        }
-
-        // Process the file
-        BufferedReader in = null;
-        PrintWriter out = null;
+        // Process the file, copying what is between the matches from the
+        // old one
+        File tempFile = null;
         try {
-            in = new BufferedReader(new FileReader(bkpFile));
-            out = new PrintWriter(new FileWriter(file));
-            // Convert lines
-            String line, newLine;
-            // int lineNum = 0;
-            while((line = in.readLine()) != null) {
-                // lineNum++;
-                newLine = line.replaceAll(oldDomainName, newDomainName);
-                out.println(newLine);
+            if(file.length() != bytes.length) {
+                throw new IOException("File changed since it was read");
             }
-
-            // Cleanup
-            if(in != null) in.close();
-            if(out != null) out.close();
-            in = null;
-            out = null;
-            if(!DRY_RUN && file.exists()) {
-                result = bkpFile.delete();
-                if(!result) {
-                    System.err.println("Failed to delete backup file:" + LS
-                        + bkpFile.getPath());
-                    abort = true;
-                    return;
-                }
+            FileRewriter rewriter = new FileRewriter();
+            for(int i = 0; i < matches.length; i += 2) {
+                rewriter.replace(matches[i],
+                    domainReplacer.getPatternLength(matches[i + 1]),
+                    domainReplacer.getReplacement(matches[i + 1]));
             }
+            tempFile = committer.createTemp(file);
+            rewriter.write(file, tempFile);
+            committer.commit(tempFile, file);
+            tempFile = null;
         } catch(Exception ex) {
             ex.printStackTrace();
         } finally {
-            try {
-                if(in != null) in.close();
-                if(out != null) out.close();
-            } catch(IOException ex) {
-                ex.printStackTrace();
-                abort = true;
-                return;
-            }
+            committer.discard(tempFile);
         }
     }
 
@@ -1275,8 +1508,8 @@ public class ProcessLicense extends ProcessTree
     }
 
     /**
-     * Method that adds or replaces the license in a Java file. The old file is
-     * renamed to a backup, which is deleted on success.
+     * Method that adds or replaces the license in a Java file. The new file is
+     * written to a temporary file, which then replaces the old one.
      * 
      * @param file
      * @param type The line-separator type. (Currently not used.)
@@ -1329,59 +1562,35 @@ public class ProcessLicense extends ProcessTree
             }
         }
         // Do it
-        Boolean result = false;
         // Check if there are text license lines
         if(licenseTextLines == null) {
             System.out.println("No text license file: Cannot continue");
             abort = true;
             return;
         }
-        // Make a backup if the file exists
-        File bkpFile = null;
-        if(file.exists()) {
-            String inName = file.getPath();
-            String bkpName = inName + ".BKP";
-            bkpFile = new File(bkpName);
-            if(bkpFile.exists()) {
-                result = bkpFile.delete();
-                if(!result) {
-                    System.err.println("Failed to delete existing backup file:"
-                        + LS + bkpFile.getPath());
-                    abort = true;
-                    return;
-                }
-            }
-            result = file.renameTo(bkpFile);
-            if(!result) {
-                System.err.println("Failed to rename original file:" + LS
-                    + bkpFile.getPath());
-                abort = true;
-                return;
-            }
-        }
+        // Write a temporary file, which then replaces the file if it exists
+        File tempFile = null;
         PrintWriter out = null;
         try {
-            out = new PrintWriter(new FileWriter(file));
+            tempFile = committer.createTemp(file);
+            out = new PrintWriter(new FileWriter(tempFile));
             for(int i = 0; i < licenseTextLines.length; i++) {
                 out.println(licenseTextLines[i]);
             }
             // Cleanup
             out.close();
-            out = null;
-            if(file.exists() && bkpFile != null && bkpFile.exists()) {
-                result = bkpFile.delete();
-                if(!result) {
-                    System.err.println("Failed to delete backup file:" + LS
-                        + bkpFile.getPath());
-                    abort = true;
-                    return;
-                }
+            if(out.checkError()) {
+                throw new IOException("Error writing " + tempFile.getPath());
             }
+            out = null;
+            committer.commit(tempFile, file);
+            tempFile = null;
             System.out.println("  Done" + LS);
         } catch(Exception ex) {
             ex.printStackTrace();
         } finally {
             if(out != null) out.close();
+            committer.discard(tempFile);
         }
     }
 
@@ -1402,32 +1611,19 @@ public class ProcessLicense extends ProcessTree
         return false;
     }
 
+    /**
+     * Checks if a file contains any of the old domain names.
+     * 
+     * @param file
+     * @return
+     */
     boolean hasOldDomainName(File file) {
-        // Do it
-        BufferedReader in = null;
         try {
-            in = new BufferedReader(new FileReader(file));
-            String line;
-            // int lineNum = 0;
-            while((line = in.readLine()) != null) {
-                // lineNum++;
-                if(line.contains(oldDomainName)) {
-                    return true;
-                }
-            }
+            return domainReplacer.contains(ByteBuffer.wrap(loadFileBytes(file)));
         } catch(Exception ex) {
             ex.printStackTrace();
             return false;
-        } finally {
-            try {
-                if(in != null) in.close();
-            } catch(IOException ex) {
-                ex.printStackTrace();
-                abort = true;
-                return false;
-            }
         }
-        return false;
     }
 
     /*
@@ -1444,6 +1640,12 @@ public class ProcessLicense extends ProcessTree
                 case 'h':
                     usage();
                     System.exit(0);
+                case 'j':
+                    nThreads = Integer.parseInt(args[++i]);
+                    break;
+                case 's':
+                    committer = new FileCommitter(true);
+                    break;
                 default:
                     System.err.println("\n\nInvalid option: " + args[i]);
                     usage();
@@ -1474,7 +1676,10 @@ public class ProcessLicense extends ProcessTree
     protected void usage() {
         System.out.println("\nUsage: java " + this.getClass().getName()
             + " [Options]\n" + "  ProcessLicense: Process licenses\n"
-            + "    -h        Help (This message)\n" + "");
+            + "    -h        Help (This message)\n"
+            + "    -j n      Threads for Java files (1 for one at a time)\n"
+            + "    -s        Sync rewritten files to disk\n"
+            + "");
     }
 
     /**
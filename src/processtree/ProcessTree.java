@@ -7,10 +7,7 @@
 package processtree;
 
 import java.io.File;
-import java.util.Arrays;
 import java.util.Enumeration;
-import java.util.List;
-import java.util.ListIterator;
 import java.util.Vector;
 
 public class ProcessTree
@@ -101,13 +98,14 @@ public class ProcessTree
       }
       level++;
       if(item.isDirectory()) {
-        File dirList[] = item.listFiles();
-        // Convert it to a list so we can sort it
-        List<?> list = Arrays.asList(dirList);
-        ListIterator<?> iter = list.listIterator();
-        while(iter.hasNext()) {
-          File file1 = (File)iter.next();
-          process((Object)file1);
+        DirectoryLister lister = new DirectoryLister(item,
+          DirectoryLister.Order.NONE);
+        try {
+          for(File file1 : lister) {
+            process((Object)file1);
+          }
+        } finally {
+          lister.close();
         }
       } else {
       }
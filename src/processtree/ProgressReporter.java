@@ -0,0 +1,136 @@
+package processtree;
+
+import java.io.PrintStream;
+
+/**
+ * ProgressReporter
+ *
+ * @author Kenneth Evans, Jr.<br>
+ * <br>
+ *         This class prints the percent complete, the current rate, and the
+ *         estimated time remaining for a long traversal. The expected number
+ *         of entries may come from a previous run or from an estimate that is
+ *         updated as the traversal proceeds. The clock is only read every
+ *         CHECK_MASK + 1 entries, and a line is only printed every
+ *         reportInterval milliseconds, so calling increment() is essentially
+ *         free.<br>
+ * <br>
+ *
+ */
+public class ProgressReporter
+{
+    /** Mask used to decide how often to read the clock. */
+    private static final long CHECK_MASK = 0xFFF;
+    /** Default minimum time between reports [milliseconds]. */
+    public static final long REPORT_INTERVAL = 5000;
+
+    private PrintStream out = System.out;
+    private long reportInterval = REPORT_INTERVAL;
+    /** The expected total number of entries. 0 if unknown. */
+    private long expected = 0;
+    /** The number of entries processed so far. */
+    private long count = 0;
+    /** The time the reporter was started [milliseconds]. */
+    private long start;
+    /** The time of the last report [milliseconds]. */
+    private long lastReport;
+    /** The count at the last report. */
+    private long lastCount = 0;
+
+    /**
+     * Constructor.
+     */
+    public ProgressReporter() {
+        start = lastReport = System.currentTimeMillis();
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param out Where to print the reports.
+     * @param reportInterval Minimum time between reports [milliseconds].
+     */
+    public ProgressReporter(PrintStream out, long reportInterval) {
+        this();
+        this.out = out;
+        this.reportInterval = reportInterval;
+    }
+
+    /**
+     * Counts one entry. Only reads the clock occasionally.
+     */
+    public void increment() {
+        if((++count & CHECK_MASK) == 0) {
+            long now = System.currentTimeMillis();
+            if(now - lastReport >= reportInterval) {
+                report(now);
+            }
+        }
+    }
+
+    /**
+     * Prints a progress line unconditionally.
+     */
+    public void report() {
+        report(System.currentTimeMillis());
+    }
+
+    /**
+     * Prints a progress line.
+     *
+     * @param now The current time [milliseconds].
+     */
+    private void report(long now) {
+        double elapsed = (now - start) / 1000.;
+        double interval = (now - lastReport) / 1000.;
+        double rate = elapsed > 0 ? count / elapsed : 0;
+        double curRate = interval > 0 ? (count - lastCount) / interval : rate;
+        lastReport = now;
+        lastCount = count;
+        if(expected > 0) {
+            // The estimate may be low
+            long total = Math.max(expected, count);
+            double percent = 100. * count / total;
+            String eta = rate > 0 ? formatTime((total - count) / rate) : "?";
+            out.printf("  [%5.1f%% %d/%d entries %.0f/s (now %.0f/s) ETA %s]\n",
+                percent, count, total, rate, curRate, eta);
+        } else {
+            out.printf("  [%d entries %.0f/s (now %.0f/s)]\n", count, rate,
+                curRate);
+        }
+    }
+
+    /**
+     * Formats a time in seconds as h:mm:ss.
+     *
+     * @param seconds
+     * @return
+     */
+    public static String formatTime(double seconds) {
+        long secs = Math.round(seconds);
+        return String.format("%d:%02d:%02d", secs / 3600, (secs / 60) % 60,
+            secs % 60);
+    }
+
+    /**
+     * @return The value of count.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return The value of expected.
+     */
+    public long getExpected() {
+        return expected;
+    }
+
+    /**
+     * @param expected The new value for expected. Use 0 if unknown.
+     */
+    public void setExpected(long expected) {
+        this.expected = expected;
+    }
+
+}
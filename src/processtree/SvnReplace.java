@@ -12,12 +12,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Enumeration;
-import java.util.List;
-import java.util.ListIterator;
 
 /**
  * SvnReplace
@@ -40,7 +35,6 @@ public class SvnReplace extends ProcessTree
   protected static final String INDENT = "| ";
   private boolean directoriesFirst = false;
   private boolean filesFirst = false;
-  private Comparator<File> fileComparator = null;
   private int maxDepth = MAX_DEPTH;
   private String dir1 = null;
   private String dir2 = null;
@@ -52,18 +46,6 @@ public class SvnReplace extends ProcessTree
    */
   public SvnReplace() {
     super();
-    fileComparator = new Comparator<File>() {
-      public int compare(File fa, File fb) {
-        if(directoriesFirst) {
-          if(fa.isDirectory() && !fb.isDirectory()) return -1;
-          if(fb.isDirectory() && !fa.isDirectory()) return 1;
-        } else if(filesFirst) {
-          if(fa.isDirectory() && !fb.isDirectory()) return 1;
-          if(fb.isDirectory() && !fa.isDirectory()) return -1;
-        }
-        return (fa.getName().compareTo(fb.getName()));
-      }
-    };
   }
 
   /*
@@ -109,15 +91,14 @@ public class SvnReplace extends ProcessTree
       if(level > maxDepth) return; // Will do finally first
       if(item.isDirectory()) {
         if(!item.getName().equals(".svn")) {
-          File dirList[] = item.listFiles();
+          DirectoryLister lister = new DirectoryLister(item, getOrder());
           System.out.println(tabs() + item.getName());
-          // Convert it to a list so we can sort it
-          List<File> list = Arrays.asList(dirList);
-          Collections.sort(list, fileComparator);
-          ListIterator<File> iter = list.listIterator();
-          while(iter.hasNext()) {
-            File file1 = (File)iter.next();
-            process((Object)file1);
+          try {
+            for(File file1 : lister) {
+              process((Object)file1);
+            }
+          } finally {
+            lister.close();
           }
         }
       } else {
@@ -180,6 +161,16 @@ public class SvnReplace extends ProcessTree
     out.close();
   }
 
+  /**
+   * Gets the order in which to list directories from the options.
+   * @return
+   */
+  private DirectoryLister.Order getOrder() {
+    if(directoriesFirst) return DirectoryLister.Order.DIRECTORIES_FIRST;
+    if(filesFirst) return DirectoryLister.Order.FILES_FIRST;
+    return DirectoryLister.Order.NAME;
+  }
+
   /**
    * Create a String with the appropriate number of tabs for the current level.
    * 